@@ -0,0 +1,85 @@
+package com.keepa.api.backend;
+
+import com.keepa.api.backend.structs.Request;
+import com.keepa.api.backend.structs.Response;
+
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Sends the requests of an iterator with at most <code>maxInFlight</code> calls pending at a time, see {@link KeepaAPI#sendAll}.
+ * The next request is only taken from the iterator when a slot becomes free, so neither requests nor responses are accumulated.
+ */
+final class BulkSend {
+	final private Iterator<Request> requests;
+	final private Function<Request, CompletableFuture<Response>> send;
+	final private BiConsumer<Request, Response> callback;
+	final CompletableFuture<Void> done = new CompletableFuture<>();
+
+	final private AtomicInteger free;
+	final private AtomicInteger pending = new AtomicInteger();
+
+	/**
+	 * Serializes {@link #drain()}, which may be entered concurrently from several completing requests.
+	 */
+	final private AtomicInteger wip = new AtomicInteger();
+	private boolean exhausted = false; // guarded by wip
+
+	BulkSend(Iterator<Request> requests, int maxInFlight, Function<Request, CompletableFuture<Response>> send, BiConsumer<Request, Response> callback) {
+		this.requests = requests;
+		this.send = send;
+		this.callback = callback;
+		this.free = new AtomicInteger(Math.max(1, maxInFlight));
+	}
+
+	/**
+	 * Starts as many requests as there are free slots and completes {@link #done} once all requests are done.
+	 * Loops instead of recursing, so requests that complete synchronously do not grow the stack.
+	 */
+	void drain() {
+		if (wip.getAndIncrement() != 0)
+			return;
+
+		do {
+			while (!exhausted && !done.isDone() && free.get() > 0) {
+				Request r;
+				try {
+					if (!requests.hasNext()) {
+						exhausted = true;
+						break;
+					}
+					r = requests.next();
+				} catch (RuntimeException e) {
+					exhausted = true;
+					done.completeExceptionally(e);
+					break;
+				}
+				if (r == null)
+					continue;
+
+				free.decrementAndGet();
+				pending.incrementAndGet();
+				send.apply(r).thenAccept(response -> onResponse(r, response));
+			}
+
+			if (exhausted && pending.get() == 0)
+				done.complete(null);
+		} while (wip.decrementAndGet() != 0);
+	}
+
+	private void onResponse(Request r, Response response) {
+		try {
+			callback.accept(r, response);
+		} catch (RuntimeException e) {
+			// stop taking new requests, the pending ones still complete
+			done.completeExceptionally(e);
+		}
+
+		pending.decrementAndGet();
+		free.incrementAndGet();
+		drain();
+	}
+}
@@ -1,24 +1,61 @@
 package com.keepa.api.backend;
 
+import com.google.gson.JsonIOException;
 import com.google.gson.stream.JsonReader;
+import com.keepa.api.backend.exceptions.RequestFailedException;
+import com.keepa.api.backend.helper.AccessKeyPool;
+import com.keepa.api.backend.helper.AdaptiveTimeouts;
 import com.keepa.api.backend.helper.BasicNameFactory;
+import com.keepa.api.backend.helper.CircuitBreaker;
+import com.keepa.api.backend.helper.ConcurrencyLimiter;
+import com.keepa.api.backend.helper.FlightEvents;
+import com.keepa.api.backend.helper.TokenGovernor;
+import com.keepa.api.backend.helper.VirtualThreads;
+import com.keepa.api.backend.metrics.KeepaMetrics;
 import com.keepa.api.backend.structs.Request;
+import com.keepa.api.backend.structs.RequestTimings;
 import com.keepa.api.backend.structs.Response;
 import org.jdeferred.Deferred;
 import org.jdeferred.Promise;
 import org.jdeferred.impl.DeferredObject;
 
-import javax.net.ssl.HttpsURLConnection;
+import com.keepa.api.backend.transport.KeepaTransport;
+import com.keepa.api.backend.transport.TransportRequest;
+import com.keepa.api.backend.transport.TransportResponse;
+import com.keepa.api.backend.transport.UrlConnectionTransport;
+import com.keepa.api.backend.transport.Transports;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.net.URL;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static com.keepa.api.backend.helper.Utility.gson;
 import static com.keepa.api.backend.helper.Utility.urlEncodeUTF8;
@@ -30,12 +67,165 @@ public final class KeepaAPI {
 	final private ExecutorService executorDeferred;
 	final private ExecutorService executorRetry;
 
+	/**
+	 * Timer for delayed retry attempts. Either executorRetry itself or an internal single thread scheduler.
+	 */
+	final private ScheduledExecutorService retryScheduler;
+
+	/**
+	 * HTTP transport used to send the requests, see {@link #setTransport(KeepaTransport)}.
+	 */
+	private volatile KeepaTransport transport = Transports.defaultTransport();
+
+	/**
+	 * Admission queue, orders requests by priority and bounds the number of concurrent requests.
+	 */
+	final private RequestDispatcher dispatcher;
+
+	/**
+	 * Number of threads of executorDeferred, if known.
+	 */
+	final private int threadLimit;
+
+	/**
+	 * See {@link #setMaxConcurrency(int)}.
+	 */
+	private volatile int maxConcurrency = 0;
+
+	/**
+	 * Optional adaptive concurrency limit, see {@link #setConcurrencyLimiter(ConcurrencyLimiter)}.
+	 */
+	private volatile ConcurrencyLimiter concurrencyLimiter = null;
+
+	/**
+	 * Optional circuit breaker per endpoint, see {@link #setCircuitBreaker(CircuitBreaker)}.
+	 */
+	private volatile CircuitBreaker circuitBreaker = null;
+
+	/**
+	 * Optional metrics, see {@link #setMetrics(KeepaMetrics)}.
+	 */
+	private volatile KeepaMetrics metrics = null;
+
+	/**
+	 * Optional adaptive read timeouts, see {@link #setAdaptiveTimeouts(AdaptiveTimeouts)}.
+	 */
+	private volatile AdaptiveTimeouts adaptiveTimeouts = null;
+
+	/**
+	 * See {@link #setCompressRequestBodies(boolean)}.
+	 */
+	private volatile boolean compressRequestBodies = false;
+
+	/**
+	 * Registered lifecycle listeners, replaced on change so iterating needs no lock.
+	 */
+	private volatile RequestListener[] listeners = new RequestListener[0];
+
+	/**
+	 * See {@link #setSingleFlight(boolean)}.
+	 */
+	private volatile boolean singleFlight = false;
+	final private ConcurrentHashMap<String, SharedRequest> inFlightRequests = new ConcurrentHashMap<>();
+
+	/**
+	 * An in-flight request shared by single-flight callers.
+	 */
+	private static final class SharedRequest {
+		final Request.Priority priority;
+		final CompletableFuture<Response> future = new CompletableFuture<>();
+
+		/**
+		 * The call sending the shared request, cancelled once none of its callers is left.
+		 */
+		final RequestCall call;
+
+		private int callers = 0;
+		private boolean abandoned = false;
+
+		SharedRequest(Request r) {
+			this.priority = r.priority != null ? r.priority : Request.Priority.NORMAL;
+			this.call = new RequestCall(r, response -> {
+			});
+		}
+
+		/**
+		 * @return false if the request was abandoned by all its callers and must not be joined anymore
+		 */
+		synchronized boolean join() {
+			if (abandoned)
+				return false;
+			callers++;
+			return true;
+		}
+
+		/**
+		 * @return true if the last caller left before the response arrived, the request is then abandoned
+		 */
+		synchronized boolean leave() {
+			if (--callers > 0 || future.isDone())
+				return false;
+			abandoned = true;
+			return true;
+		}
+	}
+
+	/**
+	 * Pending calls by request, see {@link #cancel(Request)}.
+	 */
+	final private ConcurrentHashMap<Request, Set<RequestCall>> calls = new ConcurrentHashMap<>();
+
+	/**
+	 * Optional client side token model, see {@link #setTokenGovernor(TokenGovernor)}.
+	 */
+	private volatile TokenGovernor tokenGovernor = null;
+
+	/**
+	 * Optional set of keys to send requests with, see {@link #setAccessKeyPool(AccessKeyPool)}.
+	 */
+	private volatile AccessKeyPool accessKeyPool = null;
+
 	final private String accessKey;
 	final private String userAgent;
 	final private int maxDelay = 60000;
 
 	public enum ResponseStatus {
-		PENDING, OK, FAIL, NOT_ENOUGH_TOKEN, REQUEST_REJECTED, NOT_FOUND, PAYMENT_REQUIRED, METHOD_NOT_ALLOWED, INTERNAL_SERVER_ERROR
+		PENDING, OK, FAIL, NOT_ENOUGH_TOKEN, REQUEST_REJECTED, NOT_FOUND, PAYMENT_REQUIRED, METHOD_NOT_ALLOWED, INTERNAL_SERVER_ERROR,
+		/**
+		 * The request was not sent because the request queue is full, see {@link #setQueueCapacity(int, QueuePolicy)}.
+		 */
+		QUEUE_FULL,
+		/**
+		 * The request was cancelled with {@link #cancel(Request)}.
+		 */
+		CANCELLED,
+		/**
+		 * The request did not complete within {@link Request#deadlineInMs}.
+		 */
+		DEADLINE_EXCEEDED,
+		/**
+		 * The request was not sent because the endpoint failed repeatedly, see {@link #setCircuitBreaker(CircuitBreaker)}.
+		 */
+		CIRCUIT_OPEN
+	}
+
+	/**
+	 * What happens to a request submitted while the bounded request queue is full.
+	 */
+	public enum QueuePolicy {
+		/**
+		 * The submitting thread blocks until there is room in the queue.
+		 */
+		BLOCK,
+		/**
+		 * The request fails immediately with {@link ResponseStatus#QUEUE_FULL}.
+		 */
+		FAIL_FAST,
+		/**
+		 * The most recently queued request of the lowest priority below the new request's priority fails with {@link ResponseStatus#QUEUE_FULL}
+		 * to make room. If there is none, the new request fails.
+		 */
+		SHED_LOWEST_PRIORITY
 	}
 
 	/**
@@ -43,12 +233,24 @@ public final class KeepaAPI {
 	 * @param threads Thread pool size determines degree of asynchronization. Higher thread count allows more requests in parallel to be made. Default 4
 	 */
 	public KeepaAPI(String key, int threads) {
-		this(key, Executors.newFixedThreadPool(threads, new BasicNameFactory("KeepaAPI-%d")), Executors.newFixedThreadPool(threads, new BasicNameFactory("KeepaAPI-RetryScheduler")));
+		this(key, Executors.newScheduledThreadPool(1, new BasicNameFactory("KeepaAPI-RetryScheduler")), Executors.newFixedThreadPool(threads, new BasicNameFactory("KeepaAPI-%d")));
+	}
+
+	/**
+	 * @param key            Your private API Access Token
+	 * @param virtualThreads If true and running on Java 21 or newer, every request runs on its own virtual thread,
+	 *                       so blocking network calls no longer limit the number of requests in flight.
+	 *                       On older Java versions the default pool of 4 platform threads is used.
+	 */
+	public KeepaAPI(String key, boolean virtualThreads) {
+		this(key, Executors.newScheduledThreadPool(1, new BasicNameFactory("KeepaAPI-RetryScheduler")),
+				virtualThreads && VirtualThreads.isAvailable() ? VirtualThreads.newExecutor("KeepaAPI-") : Executors.newFixedThreadPool(4, new BasicNameFactory("KeepaAPI-%d")));
 	}
 
 	/**
 	 * @param key     Your private API Access Token
-	 * @param executorRetry provide a custom executor service for request retry attempts
+	 * @param executorRetry provide a custom executor service for request retry attempts. Retries are timer driven and do not hold a thread while waiting,
+	 *                      if this is not a {@link ScheduledExecutorService} an internal single thread timer is used for the delays.
 	 * @param executorDeferred provide a custom executor service for deferred request processing
 	 */
 	public KeepaAPI(String key, ExecutorService executorRetry, ExecutorService executorDeferred) {
@@ -62,6 +264,16 @@ public final class KeepaAPI {
 
 		this.executorDeferred = executorDeferred;
 		this.executorRetry = executorRetry;
+		if (executorRetry instanceof ScheduledExecutorService)
+			this.retryScheduler = (ScheduledExecutorService) executorRetry;
+		else
+			this.retryScheduler = Executors.newSingleThreadScheduledExecutor(new BasicNameFactory("KeepaAPI-RetryTimer"));
+
+		if (executorDeferred instanceof ThreadPoolExecutor)
+			this.threadLimit = ((ThreadPoolExecutor) executorDeferred).getMaximumPoolSize();
+		else
+			this.threadLimit = Integer.MAX_VALUE;
+		this.dispatcher = new RequestDispatcher(this::getConcurrencyLimit, this::reserveTokens, retryScheduler);
 	}
 
 	/**
@@ -72,16 +284,271 @@ public final class KeepaAPI {
 	}
 
 	/**
-	*  Shutdown internal executor services (thread pools)
-	*  @param shutdownNow if true issue a shutdownNow()
+	 * Replace the HTTP transport used to send requests, e.g. with {@link Transports#pooled(int)} for a pooled HTTP/2 client.
+	 * The previous transport is closed. The new transport is closed on {@link #shutdown(boolean)}.
+	 *
+	 * @param transport the transport to use for all subsequent requests
+	 */
+	public void setTransport(KeepaTransport transport) {
+		KeepaTransport previous = this.transport;
+		this.transport = transport;
+		previous.close();
+	}
+
+	/**
+	 * Enable client side token governance. Requests are held back locally, without holding a thread, while the governor
+	 * models a depleted token balance, instead of being sent and failing with {@link ResponseStatus#NOT_ENOUGH_TOKEN}.
+	 * Pass {@link TokenGovernor#forKey(String)} to share the balance with all KeepaAPI instances using the same key,
+	 * or a {@link com.keepa.api.backend.helper.SharedTokenLedger} to also share it with other processes on the same host.
+	 *
+	 * @param tokenGovernor the governor to use or null to disable token governance (default)
+	 */
+	public void setTokenGovernor(TokenGovernor tokenGovernor) {
+		this.tokenGovernor = tokenGovernor;
+	}
+
+	/**
+	 * Distribute requests over several API keys. Each request is sent with the key of the pool with the most token headroom
+	 * instead of the key this instance was created with, and is held back locally only while all keys are depleted.
+	 * The balance of each key is modeled by {@link TokenGovernor#forKey(String)}, {@link #setTokenGovernor(TokenGovernor)} is ignored while a pool is set.
+	 *
+	 * @param accessKeyPool the keys to use or null to only use the key this instance was created with (default)
+	 */
+	public void setAccessKeyPool(AccessKeyPool accessKeyPool) {
+		this.accessKeyPool = accessKeyPool;
+		dispatcher.pump();
+	}
+
+	/**
+	 * Enable single-flight deduplication. While a request is in flight, identical requests (same path, parameters and post data)
+	 * do not cause another API call but share its round-trip, tokens and parsed {@link Response}.
+	 * A request only joins an identical request of the same or a higher {@link Request#priority}, so it never waits in a lower priority lane.
+	 * Note that all callers then receive the same Response object, which must therefore not be modified.
+	 *
+	 * @param singleFlight true to enable, default false
+	 */
+	public void setSingleFlight(boolean singleFlight) {
+		this.singleFlight = singleFlight;
+	}
+
+	/**
+	 * Limit the number of concurrently sent requests. Further requests are queued and admitted by {@link Request#priority}.
+	 *
+	 * @param maxConcurrency the limit or 0 for the default: the thread count of executorDeferred for blocking transports
+	 *                       (so requests queue here, ordered by priority, instead of in the executor), unlimited for non-blocking transports.
+	 */
+	public void setMaxConcurrency(int maxConcurrency) {
+		this.maxConcurrency = maxConcurrency;
+		dispatcher.pump();
+	}
+
+	/**
+	 * Stop sending requests to an endpoint that keeps failing, see {@link CircuitBreaker}.
+	 * While the circuit is open {@link #sendRequest(Request)} fails fast with {@link ResponseStatus#CIRCUIT_OPEN}
+	 * and {@link #sendRequestWithRetry(Request)} waits until the circuit closes instead of retrying with its own backoff.
+	 *
+	 * @param circuitBreaker the circuit breaker or null to disable it (default)
+	 */
+	public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	/**
+	 * Record latencies per endpoint and status, token balance, retries, queue depth and received bytes.
+	 *
+	 * @param metrics the metrics receiver, e.g. {@link com.keepa.api.backend.metrics.InMemoryMetrics}, or null to disable metrics (default)
+	 */
+	public void setMetrics(KeepaMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Warm up this instance before it serves traffic, e.g. after a deploy, so the first requests do not pay for
+	 * class loading, Gson type adapter creation, DNS lookup and TCP and TLS handshakes.
+	 * Parses a synthetic response and sends <code>connections</code> concurrent token status requests,
+	 * which consume no tokens and leave their connections open in the transport's pool.
+	 * The requests bypass the request queue, so its concurrency limit, e.g. the thread count, does not limit the number of connections.
+	 * With an {@link AccessKeyPool} the requests are spread over its keys, at least one per key, and their responses update the balance of each key.
+	 * Otherwise they update the token governor, if set.
+	 *
+	 * @param connections number of connections to open. Note that HTTP/2 transports multiplex all requests over one connection
+	 *                    and that {@link UrlConnectionTransport} keeps at most <code>http.maxConnections</code> (default 5) idle connections.
+	 * @return future completed once warm-up is done, exceptionally if the API could not be reached
+	 */
+	public CompletableFuture<Void> warmUp(int connections) {
+		parseResponse(new TransportResponse(200, new ByteArrayInputStream(WarmUp.gzippedResponse())), new RequestTimings());
+
+		KeepaTransport transport = this.transport;
+		AccessKeyPool pool = this.accessKeyPool;
+		List<String> keys = pool != null ? pool.getKeys() : Collections.singletonList(accessKey);
+		int count = Math.max(keys.size(), connections);
+		// a blocking transport needs one thread per connection
+		ExecutorService executor = transport.isNonBlocking() ? null : Executors.newFixedThreadPool(count, new BasicNameFactory("KeepaAPI-WarmUp-%d"));
+		CompletableFuture<?>[] requests = new CompletableFuture<?>[count];
+		for (int i = 0; i < count; i++) {
+			Request r = Request.getTokenStatusRequest();
+			String key = keys.get(i % keys.size());
+			TransportRequest request = toTransportRequest(r, key, 30000, 120000);
+			CompletableFuture<Response> response;
+			if (executor != null) {
+				response = CompletableFuture.supplyAsync(() -> {
+					try (TransportResponse tr = transport.execute(request)) {
+						return parseResponse(tr, new RequestTimings());
+					} catch (IOException e) {
+						return failedResponse(e);
+					}
+				}, executor);
+			} else {
+				response = transport.executeAsync(request).handleAsync((tr, t) -> {
+					if (tr == null)
+						return failedResponse(t);
+					try {
+						return parseResponse(tr, new RequestTimings());
+					} finally {
+						tr.close();
+					}
+				}, executorDeferred);
+			}
+
+			CompletableFuture<Void> warmed = new CompletableFuture<>();
+			response.thenAccept(result -> {
+				TokenGovernor governor = pool != null ? TokenGovernor.forKey(key) : this.tokenGovernor;
+				if (governor != null)
+					governor.update(result, 0);
+				if (result.status == ResponseStatus.OK)
+					warmed.complete(null);
+				else
+					warmed.completeExceptionally(new RequestFailedException(result));
+			});
+			requests[i] = warmed;
+		}
+
+		CompletableFuture<Void> done = CompletableFuture.allOf(requests);
+		if (executor != null)
+			done.whenComplete((v, t) -> executor.shutdown());
+		return done;
+	}
+
+	/**
+	 * Derive read timeouts from the observed latencies per endpoint and request size instead of using the fixed
+	 * <code>readTimeout</code>, which is then only used until enough latencies have been observed. See {@link AdaptiveTimeouts}.
+	 *
+	 * @param adaptiveTimeouts the adaptive timeouts or null to always use the given read timeout (default)
+	 */
+	public void setAdaptiveTimeouts(AdaptiveTimeouts adaptiveTimeouts) {
+		this.adaptiveTimeouts = adaptiveTimeouts;
+	}
+
+	/**
+	 * Gzip compress request bodies that are serialized while sending (see {@link Request#postBody}), e.g. large tracking batches.
+	 *
+	 * @param compressRequestBodies true to compress, default false
+	 */
+	public void setCompressRequestBodies(boolean compressRequestBodies) {
+		this.compressRequestBodies = compressRequestBodies;
+	}
+
+	/**
+	 * Register a listener for the lifecycle of all requests of this instance.
+	 *
+	 * @param listener the listener
+	 */
+	public synchronized void addRequestListener(RequestListener listener) {
+		RequestListener[] updated = Arrays.copyOf(listeners, listeners.length + 1);
+		updated[listeners.length] = listener;
+		listeners = updated;
+	}
+
+	/**
+	 * @param listener a listener registered with {@link #addRequestListener(RequestListener)}
+	 */
+	public synchronized void removeRequestListener(RequestListener listener) {
+		listeners = Arrays.stream(listeners).filter(l -> l != listener).toArray(RequestListener[]::new);
+	}
+
+	/**
+	 * Isolate the requests of an endpoint in their own bulkhead, with its own concurrency limit and queue.
+	 * A burst of slow requests, e.g. <code>product</code> requests with offers, then only occupies the bulkhead's slots
+	 * and no longer delays requests to other endpoints, which are admitted past the saturated bulkhead.
+	 * With a blocking transport keep the sum of the bulkhead limits below the thread count of executorDeferred,
+	 * so threads remain for the other endpoints. The global limits ({@link #setMaxConcurrency(int)}, {@link #setQueueCapacity(int, QueuePolicy)}) still apply.
+	 *
+	 * @param path          the endpoint, see {@link Request#path}
+	 * @param maxConcurrent maximum number of requests of this endpoint in flight, 0 for no separate limit
+	 * @param maxQueued     maximum number of queued requests of this endpoint, 0 for no separate limit. Requests submitted while
+	 *                      the bulkhead queue is full are rejected with {@link ResponseStatus#QUEUE_FULL}.
+	 */
+	public void setBulkhead(String path, int maxConcurrent, int maxQueued) {
+		dispatcher.setBulkhead(path, maxConcurrent, maxQueued);
+	}
+
+	/**
+	 * Bound the number of requests waiting for admission. By default the queue is unbounded.
+	 * Retry attempts of requests already accepted are always queued.
+	 *
+	 * @param capacity maximum number of queued requests, 0 for unbounded
+	 * @param policy   what happens to requests submitted while the queue is full
+	 */
+	public void setQueueCapacity(int capacity, QueuePolicy policy) {
+		dispatcher.setCapacity(capacity, policy);
+	}
+
+	/**
+	 * @return the number of requests waiting for admission, e.g. to throttle producers
+	 */
+	public int getQueueDepth() {
+		return dispatcher.getQueueDepth();
+	}
+
+	/**
+	 * @return the number of requests currently being sent or processed
+	 */
+	public int getInFlightCount() {
+		return dispatcher.getInFlight();
+	}
+
+	/**
+	 * Let the number of concurrent requests adapt to observed latencies and overload responses
+	 * ({@link ResponseStatus#NOT_ENOUGH_TOKEN}, {@link ResponseStatus#INTERNAL_SERVER_ERROR}) instead of using a fixed limit.
+	 * The adaptive limit never exceeds the limit set by {@link #setMaxConcurrency(int)} or its default.
+	 *
+	 * @param concurrencyLimiter the limiter or null to disable adaptive concurrency (default)
+	 */
+	public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+		this.concurrencyLimiter = concurrencyLimiter;
+		dispatcher.pump();
+	}
+
+	private int getConcurrencyLimit() {
+		int max = maxConcurrency;
+		if (max <= 0)
+			max = transport.isNonBlocking() ? Integer.MAX_VALUE : threadLimit;
+
+		ConcurrencyLimiter limiter = this.concurrencyLimiter;
+		return limiter != null ? Math.min(max, limiter.getLimit()) : max;
+	}
+
+	/**
+	*  Shutdown internal executor services (thread pools) and close the transport.
+	*  New requests and retries are refused. A graceful shutdown lets queued and in-flight requests finish first.
+	*  @param shutdownNow if true issue a shutdownNow() and fail all queued requests
 	*/
 	public void shutdown(boolean shutdownNow) {
 		if(shutdownNow){
+			dispatcher.shutdown(null);
+			dispatcher.abortAll(new RejectedExecutionException("KeepaAPI shut down"));
 			executorDeferred.shutdownNow();
 			executorRetry.shutdownNow();
+			retryScheduler.shutdownNow();
+			transport.close();
 		} else {
-			executorDeferred.shutdown();
-			executorRetry.shutdown();
+			// the timer and executors are needed to drain the queue
+			dispatcher.shutdown(() -> {
+				executorDeferred.shutdown();
+				executorRetry.shutdown();
+				retryScheduler.shutdown();
+				transport.close();
+			});
 		}
 	}
 
@@ -113,100 +580,579 @@ public final class KeepaAPI {
 			return d.promise();
 		}
 
-		executorDeferred.execute(() -> {
-			long responseTime = System.nanoTime();
-			Response response;
+		startCall(r, connectTimeout, readTimeout, false).result.thenAccept(response -> {
+			if (response.status == ResponseStatus.OK)
+				d.resolve(response);
+			else
+				d.reject(response);
+		});
+		return d.promise();
+	}
+
+	/**
+	 * Issue a request to the Keepa Price Data API.
+	 * If your tokens are depleted, this method will fail.
+	 * <p>
+	 * The future is completed directly on the thread that parsed the response, so chained stages should not block.
+	 * Cancelling the future cancels the request, see {@link #cancel(Request)}.
+	 * </p>
+	 *
+	 * @param r the API Request {@link Request}
+	 * @return future completed with the {@link Response} or, if the request did not succeed, with a {@link RequestFailedException}
+	 */
+	public CompletableFuture<Response> sendRequestAsync(Request r) {
+		return sendRequestAsync(r, 30000, 120000);
+	}
+
+	/**
+	 * Issue a request to the Keepa Price Data API.
+	 * If your tokens are depleted, this method will fail.
+	 *
+	 * @param r the API Request {@link Request}
+	 * @param connectTimeout the timeout value, in milliseconds, to be used when opening a connection to the API
+	 * @param readTimeout the read timeout value, in milliseconds, for receiving an API response
+	 * @return future completed with the {@link Response} or, if the request did not succeed, with a {@link RequestFailedException}
+	 * @see #sendRequestAsync(Request)
+	 */
+	public CompletableFuture<Response> sendRequestAsync(Request r, int connectTimeout, int readTimeout) {
+		if (r == null)
+			return failedFuture(new NullPointerException("request is null"));
+		return toFuture(startCall(r, connectTimeout, readTimeout, false));
+	}
 
-			String query = r.parameter.entrySet().stream()
-					.map(p -> urlEncodeUTF8(p.getKey()) + "=" + urlEncodeUTF8(p.getValue()))
-					.reduce((p1, p2) -> p1 + "&" + p2)
-					.orElse("");
+	/**
+	 * Starts a new call of the request.
+	 *
+	 * @param withRetry true to retry the request if it failed or tokens were depleted
+	 */
+	private RequestCall startCall(Request r, int connectTimeout, int readTimeout, boolean withRetry) {
+		RequestCall call = registerCall(r);
+		if (withRetry)
+			attempt(r, connectTimeout, readTimeout, call, new AtomicInteger(0), false);
+		else
+			execute(r, connectTimeout, readTimeout, false, call).thenAccept(call::complete);
+		return call;
+	}
 
-			String url = "https://api.keepa.com/" + r.path + "?key=" + accessKey + "&" + query;
+	/**
+	 * @return future completed with the call's response if it succeeded, exceptionally otherwise
+	 */
+	private static CompletableFuture<Response> toFuture(RequestCall call) {
+		CompletableFuture<Response> future = new CompletableFuture<>();
+		call.result.thenAccept(response -> {
+			if (response.status == ResponseStatus.OK)
+				future.complete(response);
+			else
+				future.completeExceptionally(new RequestFailedException(response));
+		});
+		future.whenComplete((response, t) -> {
+			if (t instanceof CancellationException)
+				call.cancel(ResponseStatus.CANCELLED, "Future cancelled");
+		});
+		return future;
+	}
+
+	private static <T> CompletableFuture<T> failedFuture(Throwable t) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		future.completeExceptionally(t);
+		return future;
+	}
 
+	/**
+	 * Cancel all pending calls of the given request. Queued requests are removed from the queue, requests in flight
+	 * have their connection aborted and pending retries are stopped. The promises are rejected with {@link ResponseStatus#CANCELLED}.
+	 * With single-flight enabled, a call that shares the round-trip of an identical request is detached, the shared request itself
+	 * is only aborted once none of its callers is left.
+	 *
+	 * @param r the request passed to {@link #sendRequest(Request)} or {@link #sendRequestWithRetry(Request)}
+	 * @return true if a pending call was cancelled
+	 */
+	public boolean cancel(Request r) {
+		Set<RequestCall> pending = calls.get(r);
+		if (pending == null)
+			return false;
+
+		boolean cancelled = false;
+		for (RequestCall call : pending)
+			cancelled |= call.cancel(ResponseStatus.CANCELLED, "Request cancelled");
+		return cancelled;
+	}
+
+	/**
+	 * Registers a new call of the request, so it can be cancelled, and starts its deadline timer.
+	 */
+	private RequestCall registerCall(Request r) {
+		RequestCall call = new RequestCall(r, response -> onCallDone(r, response));
+		calls.compute(r, (k, set) -> {
+			if (set == null)
+				set = ConcurrentHashMap.newKeySet();
+			set.add(call);
+			return set;
+		});
+
+		if (r.deadlineInMs > 0) {
+			try {
+				call.deadlineTimer = retryScheduler.schedule(() -> call.cancel(ResponseStatus.DEADLINE_EXCEEDED, "Deadline of " + r.deadlineInMs + " ms exceeded"),
+						r.deadlineInMs, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException ignored) {
+				// shut down
+			}
+		}
+		return call;
+	}
+
+	/**
+	 * Unregisters the finished call and notifies the listeners if it did not succeed.
+	 */
+	private void onCallDone(Request r, Response response) {
+		calls.computeIfPresent(r, (k, set) -> {
+			set.removeIf(call -> call.isDone());
+			return set.isEmpty() ? null : set;
+		});
+
+		if (response.status != ResponseStatus.OK) {
+			if (hasListeners())
+				notifyListeners(listener -> listener.onGiveUp(r, response));
+		}
+	}
+
+
+	/**
+	 * Completes the returned future with the parsed {@link Response}, whatever its status.
+	 * With single-flight enabled, identical requests in flight share one future.
+	 */
+	private CompletableFuture<Response> execute(Request r, int connectTimeout, int readTimeout, boolean retry, RequestCall call) {
+		if (!singleFlight)
+			return submit(r, connectTimeout, readTimeout, retry, call);
+
+		String key = getFingerprint(r);
+		if (key == null)
+			return submit(r, connectTimeout, readTimeout, retry, call);
+
+		SharedRequest shared = new SharedRequest(r);
+		shared.join();
+		while (true) {
+			SharedRequest existing = inFlightRequests.putIfAbsent(key, shared);
+			if (existing == null)
+				break;
+			// joining a lower priority request would make this caller wait in the lower priority lane, send it separately instead
+			if (existing.priority.ordinal() <= shared.priority.ordinal()) {
+				if (existing.join())
+					return joined(key, existing, call);
+				inFlightRequests.remove(key, existing); // abandoned, being aborted
+			} else if (inFlightRequests.replace(key, existing, shared))
+				break;
+		}
+
+		submit(r, connectTimeout, readTimeout, retry, shared.call).thenAccept(response -> {
+			inFlightRequests.remove(key, shared);
+			shared.future.complete(response);
+		});
+		return joined(key, shared, call);
+	}
+
+	/**
+	 * Detaches the caller from the shared request when it is cancelled. The shared request is aborted once none of its callers is left.
+	 */
+	private CompletableFuture<Response> joined(String key, SharedRequest shared, RequestCall call) {
+		if (call != null) {
+			call.setAbort(() -> {
+				if (shared.leave()) {
+					inFlightRequests.remove(key, shared);
+					shared.call.cancel(ResponseStatus.CANCELLED, "All callers cancelled");
+				}
+			});
+		}
+		return shared.future;
+	}
+
+	/**
+	 * Canonical identity of a request: path, parameters in sorted order and post data.
+	 *
+	 * @return the fingerprint or null if the request is never shared
+	 */
+	private static String getFingerprint(Request r) {
+		String postData = getPostData(r);
+		if (postData == null && r.postBody != null)
+			return null; // not serialized up front
+		StringBuilder sb = new StringBuilder(128).append(r.path).append('?');
+		new TreeMap<>(r.parameter).forEach((k, v) -> sb.append(k).append('=').append(v).append('&'));
+		if (postData != null)
+			sb.append('\n').append(postData);
+		return sb.toString();
+	}
+
+	/**
+	 * @return the deprecated {@link Request#postData}, which is still sent if set
+	 */
+	@SuppressWarnings("deprecation")
+	private static String getPostData(Request r) {
+		return r.postData;
+	}
+
+	/**
+	 * Queues the request for admission and completes the returned future with the parsed {@link Response}, whatever its status.
+	 *
+	 * @param retry true for retry attempts, which are queued even if the queue is full
+	 * @param call  the call to register abort actions with, may be null
+	 */
+	private CompletableFuture<Response> submit(Request r, int connectTimeout, int readTimeout, boolean retry, RequestCall call) {
+		CompletableFuture<Response> future = new CompletableFuture<>();
+		CircuitBreaker breaker = this.circuitBreaker;
+		if (breaker != null && breaker.isOpen(r.path)) {
+			Response response = circuitOpen(r);
+			future.complete(response);
+			recordMetrics(r, response, null);
+			return future;
+		}
+
+		int cost = r.getEstimatedTokenCost();
+		RequestTimings timings = new RequestTimings();
+		timings.queued = System.nanoTime();
+		Object queueEvent = FlightEvents.queued(r);
+		RequestDispatcher.Task task = new RequestDispatcher.Task(r.path, r.priority, cost, retry, started -> {
+			timings.dequeued = System.nanoTime();
+			FlightEvents.dequeued(queueEvent);
+			CircuitBreaker circuit = this.circuitBreaker;
+			CircuitBreaker.Permit permit = circuit != null ? circuit.tryAcquire(r.path) : null;
+			if (circuit != null && permit == null) {
+				TokenGovernor governor = started.accessKey != null ? TokenGovernor.forKey(started.accessKey) : this.tokenGovernor;
+				if (governor != null)
+					governor.release(cost);
+				dispatcher.refuse(started);
+				Response response = circuitOpen(r);
+				response.timings = timings;
+				future.complete(response);
+				recordMetrics(r, response, timings);
+				return;
+			}
+
+			Object requestEvent = FlightEvents.sending(r);
+			if (hasListeners())
+				notifyListeners(listener -> listener.onSent(r));
+
+			AdaptiveTimeouts adaptive = this.adaptiveTimeouts;
+			int timeout = adaptive != null ? adaptive.getReadTimeout(r, readTimeout) : readTimeout;
+			String key = started.accessKey != null ? started.accessKey : accessKey;
+			send(r, key, connectTimeout, timeout, call, timings).thenAccept(response -> {
+				if (adaptive != null)
+					adaptive.onResponse(r, response, timeout);
+				FlightEvents.completed(requestEvent, r, response);
+				TokenGovernor governor = started.accessKey != null ? TokenGovernor.forKey(started.accessKey) : this.tokenGovernor;
+				if (governor != null)
+					governor.update(response, cost);
+				ConcurrencyLimiter limiter = this.concurrencyLimiter;
+				if (limiter != null)
+					limiter.onResponse(response, dispatcher.getInFlight());
+				if (permit != null) {
+					if (call != null && call.isDone())
+						permit.release(); // aborted, says nothing about the endpoint
+					else
+						permit.onResponse(response);
+				}
+				dispatcher.release(started);
+				future.complete(response);
+
+				// user callbacks last, so a failing one can not keep the caller waiting
+				if (hasListeners())
+					notifyListeners(listener -> listener.onResponse(r, response));
+				recordMetrics(r, response, timings);
+			});
+		}, (status, e) -> {
+			Response response = failedResponse(e);
+			response.status = status;
+			response.timings = timings;
+			future.complete(response);
+			if (status == ResponseStatus.QUEUE_FULL)
+				recordMetrics(r, response, timings);
+		});
+
+		if (call != null) {
+			call.setAbort(() -> {
+				if (dispatcher.remove(task))
+					task.abort.accept(ResponseStatus.CANCELLED, new CancellationException("Request cancelled"));
+			});
+		}
+		if (hasListeners())
+			notifyListeners(listener -> listener.onQueued(r));
+		dispatcher.submit(task);
+		KeepaMetrics metrics = this.metrics;
+		if (metrics != null) {
 			try {
-				URL obj = new URL(url);
-				HttpsURLConnection con = (HttpsURLConnection) obj.openConnection();
-				con.setUseCaches(false);
-				con.setRequestProperty("User-Agent", this.userAgent);
-				con.setRequestProperty("Connection", "keep-alive");
-				con.setRequestProperty("Accept-Encoding", "gzip");
-				con.setConnectTimeout(connectTimeout);
-				con.setReadTimeout(readTimeout);
-				if (r.postData != null) {
-					con.setRequestMethod("POST");
-					con.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
-					con.setDoOutput(true);
-					try (OutputStream os = con.getOutputStream()) {
-						os.write(r.postData.getBytes(StandardCharsets.UTF_8));
+				metrics.recordQueue(dispatcher.getQueueDepth(), dispatcher.getInFlight());
+			} catch (RuntimeException ignored) {
+			}
+		}
+		return future;
+	}
+
+	/**
+	 * Checked before building an event, so no callback is allocated while no listener is registered.
+	 */
+	private boolean hasListeners() {
+		return listeners.length > 0;
+	}
+
+	/**
+	 * Calls every listener, exceptions thrown by a listener are ignored.
+	 */
+	private void notifyListeners(Consumer<RequestListener> event) {
+		for (RequestListener listener : listeners) {
+			try {
+				event.accept(listener);
+			} catch (RuntimeException ignored) {
+			}
+		}
+	}
+
+	/**
+	 * @return the response of a request refused by the circuit breaker
+	 */
+	private static Response circuitOpen(Request r) {
+		Response response = failedResponse(new RejectedExecutionException("Circuit open for " + r.path));
+		response.status = ResponseStatus.CIRCUIT_OPEN;
+		return response;
+	}
+
+	/**
+	 * Reserves the tokens of a request about to leave the queue, with the key pool or the token governor, if set.
+	 *
+	 * @return 0 if the request may be sent, otherwise the milliseconds to wait before trying again
+	 */
+	private long reserveTokens(RequestDispatcher.Task task) {
+		AccessKeyPool pool = this.accessKeyPool;
+		if (pool != null) {
+			task.accessKey = pool.reserve(task.cost, task.priority);
+			return task.accessKey != null ? 0 : Math.max(1, pool.getWait(task.priority));
+		}
+
+		TokenGovernor governor = this.tokenGovernor;
+		return governor != null ? governor.reserve(task.cost, task.priority) : 0;
+	}
+
+	private void recordMetrics(Request r, Response response, RequestTimings timings) {
+		KeepaMetrics metrics = this.metrics;
+		if (metrics == null)
+			return;
+
+		try {
+			if (timings != null) {
+				long end = timings.parsed != 0 ? timings.parsed : System.nanoTime();
+				metrics.recordResponse(r.path, response.status, end - timings.queued, timings.compressedBytes, timings.uncompressedBytes);
+			} else
+				metrics.recordResponse(r.path, response.status, 0, 0, 0); // refused before it was queued
+			if (response.refillRate > 0 || response.refillIn > 0)
+				metrics.recordTokens(response.tokensLeft, response.tokensConsumed);
+			metrics.recordQueue(dispatcher.getQueueDepth(), dispatcher.getInFlight());
+		} catch (RuntimeException ignored) {
+		}
+	}
+
+	/**
+	 * Sends the request and completes the returned future with the parsed {@link Response}, whatever its status.
+	 * With a blocking transport the whole request runs on an <code>executorDeferred</code> thread.
+	 * With a non-blocking transport no thread is held while waiting for the network, only decompression and parsing run on <code>executorDeferred</code>.
+	 */
+	private CompletableFuture<Response> send(Request r, String key, int connectTimeout, int readTimeout, RequestCall call, RequestTimings timings) {
+		CompletableFuture<Response> future = new CompletableFuture<>();
+		KeepaTransport transport = this.transport;
+
+		if (transport.isNonBlocking()) {
+			long responseTime = System.nanoTime();
+			TransportRequest request = toTransportRequest(r, key, connectTimeout, readTimeout);
+			if (call != null)
+				call.setAbort(request::abort);
+			// transports that buffer the body report the first byte as it arrives, for all others it is reported with the response
+			AtomicBoolean firstByte = hasListeners() ? new AtomicBoolean(false) : null;
+			if (firstByte != null) {
+				request.onFirstByte(statusCode -> {
+					if (firstByte.compareAndSet(false, true))
+						notifyListeners(listener -> listener.onFirstByte(r, statusCode));
+				});
+			}
+			transport.executeAsync(request).whenCompleteAsync((tr, t) -> {
+				Response response;
+				if (tr != null) {
+					try {
+						if (firstByte != null && firstByte.compareAndSet(false, true))
+							notifyListeners(listener -> listener.onFirstByte(r, tr.statusCode));
+						response = parseResponse(tr, timings);
+					} finally {
+						tr.close();
 					}
 				} else
-					con.setRequestMethod("GET");
-
-				int responseCode = con.getResponseCode();
-
-				if (responseCode == 200) {
-					try (InputStream is = con.getInputStream();
-					     GZIPInputStream gis = new GZIPInputStream(is)) {
-						JsonReader reader = new JsonReader(new InputStreamReader(gis, "UTF-8"));
-						response = gson.fromJson(reader, Response.class);
-						response.status = ResponseStatus.OK;
-					} catch (Exception e) {
-						response = new Response();
-						response.status = ResponseStatus.FAIL;
-						response.exception = e;
-					}
-				} else {
-					try (InputStream is = con.getErrorStream();
-					     GZIPInputStream gis = new GZIPInputStream(is)) {
-						JsonReader reader = new JsonReader(new InputStreamReader(gis, "UTF-8"));
-						response = gson.fromJson(reader, Response.class);
-					} catch (Exception e) {
-						response = new Response();
-						response.status = ResponseStatus.FAIL;
-						response.exception = e;
-					}
+					response = failedResponse(t);
+
+				response.timings = timings;
+				response.requestTime = (System.nanoTime() - responseTime) / 1000000;
+				future.complete(response);
+			}, executorDeferred);
+		} else {
+			try {
+				executorDeferred.execute(() -> {
+					long responseTime = System.nanoTime();
+					Response response;
 
-                    response.statusCode = responseCode;
-
-					switch (responseCode) {
-						case 400:
-							response.status = ResponseStatus.REQUEST_REJECTED;
-							break;
-						case 402:
-							response.status = ResponseStatus.PAYMENT_REQUIRED;
-							break;
-						case 404:
-							response.status = ResponseStatus.NOT_FOUND;
-							break;
-						case 405:
-							response.status = ResponseStatus.METHOD_NOT_ALLOWED;
-							break;
-						case 429:
-							response.status = ResponseStatus.NOT_ENOUGH_TOKEN;
-							break;
-						case 500:
-							response.status = ResponseStatus.INTERNAL_SERVER_ERROR;
-							break;
-						default:
-							if (response.status != ResponseStatus.FAIL)
-								response.status = ResponseStatus.FAIL;
-							break;
+					TransportRequest request = toTransportRequest(r, key, connectTimeout, readTimeout);
+					if (call != null)
+						call.setAbort(request::abort);
+					try (TransportResponse tr = transport.execute(request)) {
+						if (hasListeners())
+							notifyListeners(listener -> listener.onFirstByte(r, tr.statusCode));
+						response = parseResponse(tr, timings);
+					} catch (IOException e) {
+						response = failedResponse(e);
 					}
-				}
-			} catch (IOException e) {
-				response = new Response();
-				response.status = ResponseStatus.FAIL;
-				response.exception = e;
+
+					response.timings = timings;
+					response.requestTime = (System.nanoTime() - responseTime) / 1000000;
+					future.complete(response);
+				});
+			} catch (RejectedExecutionException e) { // shut down
+				Response response = failedResponse(e);
+				response.timings = timings;
+				future.complete(response);
 			}
+		}
+		return future;
+	}
 
-			response.requestTime = (System.nanoTime() - responseTime) / 1000000;
-			if (response.status == ResponseStatus.OK)
-				d.resolve(response);
-			else
-				d.reject(response);
-		});
-		return d.promise();
+	private TransportRequest toTransportRequest(Request r, String key, int connectTimeout, int readTimeout) {
+		String query = r.parameter.entrySet().stream()
+				.map(p -> urlEncodeUTF8(p.getKey()) + "=" + urlEncodeUTF8(p.getValue()))
+				.reduce((p1, p2) -> p1 + "&" + p2)
+				.orElse("");
+
+		String url = "https://api.keepa.com/" + r.path + "?key=" + key + "&" + query;
+
+		TransportRequest request;
+		boolean gzip = compressRequestBodies;
+		String postData = getPostData(r);
+		if (postData != null)
+			request = new TransportRequest(url, postData.getBytes(StandardCharsets.UTF_8), connectTimeout, readTimeout);
+		else if (r.postBody != null) {
+			Object body = r.postBody;
+			request = new TransportRequest(url, out -> writeJson(body, out, gzip), connectTimeout, readTimeout);
+			if (gzip)
+				request.headers.put("Content-Encoding", "gzip");
+		} else
+			request = new TransportRequest(url, (byte[]) null, connectTimeout, readTimeout);
+
+		request.headers.put("User-Agent", this.userAgent);
+		request.headers.put("Connection", "keep-alive");
+		request.headers.put("Accept-Encoding", "gzip");
+		if (r.hasBody())
+			request.headers.put("Content-Type", "application/json; charset=UTF-8");
+		return request;
+	}
+
+	/**
+	 * Serializes the request body straight into the connection, optionally gzip compressed, without an intermediate String or byte array.
+	 */
+	private static void writeJson(Object body, OutputStream out, boolean gzip) throws IOException {
+		GZIPOutputStream gzipOut = gzip ? new GZIPOutputStream(out, 8192) : null;
+		Writer writer = new BufferedWriter(new OutputStreamWriter(gzipOut != null ? gzipOut : out, StandardCharsets.UTF_8), 8192);
+		try {
+			gson.toJson(body, writer);
+		} catch (JsonIOException e) {
+			throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e);
+		}
+		writer.flush();
+		if (gzipOut != null)
+			gzipOut.finish();
+	}
+
+	/**
+	 * Decompresses and parses the response body and maps the HTTP status code to a {@link ResponseStatus}.
+	 */
+	private static Response parseResponse(TransportResponse tr, RequestTimings timings) {
+		Response response;
+		int responseCode = tr.statusCode;
+
+		if (responseCode == 200) {
+			response = readBody(tr, timings);
+			if (response.status != ResponseStatus.FAIL)
+				response.status = ResponseStatus.OK;
+		} else {
+			response = readBody(tr, timings);
+
+			response.statusCode = responseCode;
+
+			switch (responseCode) {
+				case 400:
+					response.status = ResponseStatus.REQUEST_REJECTED;
+					break;
+				case 402:
+					response.status = ResponseStatus.PAYMENT_REQUIRED;
+					break;
+				case 404:
+					response.status = ResponseStatus.NOT_FOUND;
+					break;
+				case 405:
+					response.status = ResponseStatus.METHOD_NOT_ALLOWED;
+					break;
+				case 429:
+					response.status = ResponseStatus.NOT_ENOUGH_TOKEN;
+					break;
+				case 500:
+					response.status = ResponseStatus.INTERNAL_SERVER_ERROR;
+					break;
+				default:
+					if (response.status != ResponseStatus.FAIL)
+						response.status = ResponseStatus.FAIL;
+					break;
+			}
+		}
+		return response;
+	}
+
+	/**
+	 * Decompresses and parses the body, recording the time spent in each phase.
+	 *
+	 * @return the parsed response or a {@link ResponseStatus#FAIL} response if the body could not be read
+	 */
+	private static Response readBody(TransportResponse tr, RequestTimings timings) {
+		timings.connected = tr.connectedAt;
+		timings.firstByte = tr.firstByteAt;
+
+		TimingInputStream raw = new TimingInputStream(tr.body);
+		TimingInputStream inflated = null;
+		Response response;
+		try (GZIPInputStream gis = new GZIPInputStream(raw)) {
+			inflated = new TimingInputStream(gis);
+			JsonReader reader = new JsonReader(new InputStreamReader(inflated, "UTF-8"));
+			response = gson.fromJson(reader, Response.class);
+			if (response == null)
+				response = failedResponse(new IOException("Empty response body"));
+		} catch (Exception e) {
+			response = failedResponse(e);
+		}
+
+		timings.parsed = System.nanoTime();
+		if (tr.bodyReadAt != 0) { // buffered by the transport
+			timings.bodyRead = tr.bodyReadAt;
+			timings.readNanos = Math.max(0, tr.bodyReadAt - tr.firstByteAt);
+		} else {
+			timings.bodyRead = raw.eofAt != 0 ? raw.eofAt : timings.parsed;
+			timings.readNanos = raw.nanos;
+		}
+		timings.compressedBytes = raw.bytes;
+		if (inflated != null) {
+			timings.uncompressedBytes = inflated.bytes;
+			timings.decompressNanos = Math.max(0, inflated.nanos - raw.nanos);
+			timings.decompressed = inflated.eofAt != 0 ? inflated.eofAt : timings.parsed;
+		}
+		return response;
+	}
+
+	private static Response failedResponse(Throwable t) {
+		if (t instanceof CompletionException && t.getCause() != null)
+			t = t.getCause();
+
+		Response response = new Response();
+		response.status = ResponseStatus.FAIL;
+		response.exception = t instanceof Exception ? (Exception) t : new Exception(t);
+		return response;
 	}
 
 	/**
@@ -221,54 +1167,18 @@ public final class KeepaAPI {
 	 */
 	public Promise<Response, Response, Void> sendRequestWithRetry(Request r, int connectTimeout, int readTimeout) {
 		Deferred<Response, Response, Void> deferred = new DeferredObject<>();
-		AtomicInteger expoDelay = new AtomicInteger(0);
 
-		executorRetry.execute(() -> {
-			int retry = 0;
-			Response[] lastResponse = {null};
-			final boolean[] solved = {false};
+		if (r == null) {
+			deferred.reject(null);
+			return deferred.promise();
+		}
 
-			try {
-				int delay = 0;
-
-				while (!solved[0]) {
-					if (lastResponse[0] != null && lastResponse[0].status == ResponseStatus.NOT_ENOUGH_TOKEN && lastResponse[0].refillIn > 0)
-						delay = lastResponse[0].refillIn + 100;
-
-					if (retry > 0)
-						Thread.sleep(delay);
-
-					Promise<Response, Response, Void> p1 = sendRequest(r, connectTimeout, readTimeout);
-					p1
-							.done(result -> {
-								deferred.resolve(result);
-								solved[0] = true;
-								expoDelay.set(0);
-							})
-							.fail(result -> {
-								lastResponse[0] = result;
-								switch (result.status) {
-									case FAIL:
-									case NOT_ENOUGH_TOKEN: // retry
-										break;
-									default:
-										deferred.reject(result);
-										solved[0] = true;
-								}
-							})
-							.waitSafely();
-
-					if (p1.isRejected()) {
-						retry++;
-						delay = expoDelay.getAndUpdate(operand -> Math.min(2 * operand + 100, maxDelay));
-					}
-				}
-			} catch (InterruptedException e) {
-				Thread.currentThread().interrupt();
-				deferred.reject(null);
-			}
+		startCall(r, connectTimeout, readTimeout, true).result.thenAccept(response -> {
+			if (response.status == ResponseStatus.OK)
+				deferred.resolve(response);
+			else
+				deferred.reject(response);
 		});
-
 		return deferred.promise();
 	}
 
@@ -284,4 +1194,138 @@ public final class KeepaAPI {
 		return sendRequestWithRetry(r, 30000, 120000);
 	}
 
+	/**
+	 * Issue a request to the Keepa Price Data API.
+	 * If your API contingent is depleted, this method will retry the request as soon as there are new tokens available. May take minutes.
+	 * Will fail it the request failed too many times.
+	 * <p>
+	 * No thread is blocked while waiting for the response or between retries, so the future can be composed
+	 * with further requests without blocking, e.g. finder, then products, then sellers.
+	 * Cancelling the future cancels the request, see {@link #cancel(Request)}.
+	 * </p>
+	 *
+	 * @param r the API Request {@link Request}
+	 * @param connectTimeout the timeout value, in milliseconds, to be used when opening a connection to the API
+	 * @param readTimeout the read timeout value, in milliseconds, for receiving an API response
+	 * @return future completed with the {@link Response} or, if the request did not succeed, with a {@link RequestFailedException}
+	 */
+	public CompletableFuture<Response> sendRequestWithRetryAsync(Request r, int connectTimeout, int readTimeout) {
+		if (r == null)
+			return failedFuture(new NullPointerException("request is null"));
+		return toFuture(startCall(r, connectTimeout, readTimeout, true));
+	}
+
+	/**
+	 * Issue a request to the Keepa Price Data API.
+	 * If your API contingent is depleted, this method will retry the request as soon as there are new tokens available. May take minutes.
+	 * Will fail it the request failed too many times.
+	 *
+	 * @param r the API Request {@link Request}
+	 * @return future completed with the {@link Response} or, if the request did not succeed, with a {@link RequestFailedException}
+	 * @see #sendRequestWithRetryAsync(Request, int, int)
+	 */
+	public CompletableFuture<Response> sendRequestWithRetryAsync(Request r) {
+		return sendRequestWithRetryAsync(r, 30000, 120000);
+	}
+
+	/**
+	 * Issue many requests to the Keepa Price Data API, with at most <code>maxInFlight</code> of them pending at a time.
+	 * Each request is sent like with {@link #sendRequestWithRetry(Request)} and its response, whatever its status, is
+	 * passed to the callback as soon as it completes. Requests are only taken from the iterable when a slot is free,
+	 * so memory use does not depend on the number of requests. Requests are paced by the token governor, if set
+	 * (see {@link #setTokenGovernor(TokenGovernor)}), otherwise requests that ran out of tokens wait for the refill before they are retried.
+	 * <p>
+	 * The callback may be called concurrently from different threads. If it throws, no further requests are sent
+	 * and the returned future completes with that exception.
+	 * </p>
+	 *
+	 * @param requests    the requests, e.g. a lazily generated iterable
+	 * @param maxInFlight maximum number of pending requests
+	 * @param callback    receives each request with its response
+	 * @return future completed once all requests are done
+	 */
+	public CompletableFuture<Void> sendAll(Iterable<Request> requests, int maxInFlight, BiConsumer<Request, Response> callback) {
+		BulkSend bulk = new BulkSend(requests.iterator(), maxInFlight, r -> startCall(r, 30000, 120000, true).result, callback);
+		bulk.drain();
+		return bulk.done;
+	}
+
+	/**
+	 * Sends the request once and, if it needs to be retried, schedules the next attempt on the retry timer.
+	 * No thread is held between attempts.
+	 */
+	private void attempt(Request r, int connectTimeout, int readTimeout, RequestCall call, AtomicInteger expoDelay, boolean retry) {
+		if (call.isDone())
+			return; // cancelled
+
+		execute(r, connectTimeout, readTimeout, retry, call).thenAccept(result -> {
+			switch (result.status) {
+				case OK:
+					expoDelay.set(0);
+					call.complete(result);
+					break;
+				case FAIL:
+				case NOT_ENOUGH_TOKEN: // retry
+					if (call.isDone())
+						break;
+
+					int delay = expoDelay.getAndUpdate(operand -> Math.min(2 * operand + 100, maxDelay));
+					if (result.status == ResponseStatus.NOT_ENOUGH_TOKEN && result.refillIn > 0)
+						delay = result.refillIn + 100;
+
+					retry(r, connectTimeout, readTimeout, call, expoDelay, result, delay);
+					break;
+				case CIRCUIT_OPEN: // wait for the circuit to close, spread out so the recovering API is not hit by all retries at once
+					if (call.isDone())
+						break;
+
+					CircuitBreaker breaker = this.circuitBreaker;
+					long wait = breaker != null ? breaker.getRetryDelay(r.path) : 0;
+					retry(r, connectTimeout, readTimeout, call, expoDelay, result, wait + ThreadLocalRandom.current().nextLong(wait / 2 + 100));
+					break;
+				default:
+					call.complete(result);
+			}
+		});
+	}
+
+	/**
+	 * Schedules the next attempt of the call.
+	 *
+	 * @param result the response of the last attempt, to complete the call with if no retry is possible
+	 */
+	private void retry(Request r, int connectTimeout, int readTimeout, RequestCall call, AtomicInteger expoDelay, Response result, long delay) {
+		if (dispatcher.isShutdown()) {
+			call.complete(result);
+			return;
+		}
+
+		KeepaMetrics metrics = this.metrics;
+		if (metrics != null) {
+			try {
+				metrics.recordRetry(r.path, result.status);
+			} catch (RuntimeException ignored) {
+			}
+		}
+		FlightEvents.retry(r, result.status, delay);
+		if (hasListeners())
+			notifyListeners(listener -> listener.onRetryScheduled(r, result, delay));
+		try {
+			ScheduledFuture<?> next = scheduleRetry(() -> attempt(r, connectTimeout, readTimeout, call, expoDelay, true), delay);
+			call.setAbort(() -> next.cancel(false));
+		} catch (RejectedExecutionException e) { // shut down
+			call.complete(result);
+		}
+	}
+
+	/**
+	 * Runs the task on executorRetry after the given delay.
+	 */
+	private ScheduledFuture<?> scheduleRetry(Runnable task, long delay) {
+		if (retryScheduler == executorRetry)
+			return retryScheduler.schedule(task, delay, TimeUnit.MILLISECONDS);
+		else
+			return retryScheduler.schedule(() -> executorRetry.execute(task), delay, TimeUnit.MILLISECONDS);
+	}
+
 }
@@ -0,0 +1,98 @@
+package com.keepa.api.backend;
+
+import com.keepa.api.backend.structs.Request;
+import com.keepa.api.backend.structs.Response;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * State of one sendRequest or sendRequestWithRetry call, used to cancel it.
+ * <p>
+ * Whatever the call is currently waiting for (a queue slot, the network or a retry delay) registers an abort action,
+ * which is run when the call is cancelled, e.g. by {@link KeepaAPI#cancel(Request)} or when its deadline passes.
+ * </p>
+ */
+final class RequestCall {
+	final Request request;
+
+	/**
+	 * Completed exactly once, with the final response or the cancellation.
+	 */
+	final CompletableFuture<Response> result = new CompletableFuture<>();
+
+	volatile ScheduledFuture<?> deadlineTimer;
+
+	/**
+	 * Runs with the final response before {@link #result} is completed, so it happens before anything chained to the result.
+	 */
+	final private Consumer<Response> onDone;
+	final private AtomicBoolean done = new AtomicBoolean(false);
+
+	private Runnable abort;
+
+	RequestCall(Request request, Consumer<Response> onDone) {
+		this.request = request;
+		this.onDone = onDone;
+	}
+
+	boolean isDone() {
+		return done.get();
+	}
+
+	boolean complete(Response response) {
+		if (!done.compareAndSet(false, true))
+			return false;
+		finish(response);
+		return true;
+	}
+
+	private void finish(Response response) {
+		ScheduledFuture<?> timer = deadlineTimer;
+		if (timer != null)
+			timer.cancel(false);
+		try {
+			onDone.accept(response);
+		} finally {
+			result.complete(response);
+		}
+	}
+
+	/**
+	 * Registers the action that aborts the current step of the call. Runs it immediately if the call is already done.
+	 */
+	void setAbort(Runnable abort) {
+		synchronized (this) {
+			if (!done.get()) {
+				this.abort = abort;
+				return;
+			}
+		}
+		abort.run();
+	}
+
+	/**
+	 * Completes the call with the given status and aborts its current step.
+	 *
+	 * @return false if the call was already done
+	 */
+	boolean cancel(KeepaAPI.ResponseStatus status, String reason) {
+		Response response = new Response();
+		response.status = status;
+		response.exception = new CancellationException(reason);
+		Runnable current;
+		synchronized (this) {
+			if (!done.compareAndSet(false, true))
+				return false;
+			current = abort;
+			abort = null;
+		}
+		if (current != null)
+			current.run();
+		finish(response);
+		return true;
+	}
+}
@@ -0,0 +1,397 @@
+package com.keepa.api.backend;
+
+import com.keepa.api.backend.structs.Request;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Admission queue of a {@link KeepaAPI} instance.
+ * <p>
+ * Requests wait here, one FIFO lane per {@link Request.Priority}, until a concurrency slot and, if token governance is enabled, tokens are available.
+ * The head of the highest priority lane is always admitted first, so interactive requests overtake queued bulk work and get tokens first.
+ * Waiting for tokens is timer driven and holds no thread.
+ * </p>
+ * <p>
+ * Paths with a bulkhead have their own lanes, concurrency limit and queue bound, see {@link KeepaAPI#setBulkhead(String, int, int)}.
+ * A saturated bulkhead only holds back requests of its own path. Among the admissible requests of equal priority the oldest goes first.
+ * </p>
+ * The queue can be bounded, see {@link KeepaAPI.QueuePolicy} for what happens to requests submitted to a full queue.
+ * Retry attempts of already accepted requests are never refused.
+ */
+final class RequestDispatcher {
+	/**
+	 * A queued request. {@link #start} must lead to exactly one {@link #release(Task)} call once the request is done.
+	 * {@link #abort} is called instead if the request is refused or dropped from the queue.
+	 */
+	static final class Task {
+		final String path;
+		final Request.Priority priority;
+		final int cost;
+		final boolean retry;
+		final Consumer<Task> start;
+		final BiConsumer<KeepaAPI.ResponseStatus, Exception> abort;
+
+		/**
+		 * Key the tokens were reserved for on admission if an access key pool is used, otherwise null.
+		 */
+		String accessKey;
+
+		private Group group;
+		private long seq;
+
+		Task(String path, Request.Priority priority, int cost, boolean retry, Consumer<Task> start, BiConsumer<KeepaAPI.ResponseStatus, Exception> abort) {
+			this.path = path;
+			this.priority = priority != null ? priority : Request.Priority.NORMAL;
+			this.cost = cost;
+			this.retry = retry;
+			this.start = start;
+			this.abort = abort;
+		}
+	}
+
+	/**
+	 * The lanes of the requests without bulkhead or of one bulkhead.
+	 */
+	private static final class Group {
+		final ArrayDeque<Task>[] lanes;
+
+		/**
+		 * Maximum number of requests in flight, 0 for no limit besides the global one.
+		 */
+		int maxConcurrent;
+
+		/**
+		 * Maximum number of queued requests, 0 for no limit besides the global one.
+		 */
+		int maxQueued;
+
+		int inFlight = 0;
+		int queued = 0;
+
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Group(int maxConcurrent, int maxQueued) {
+			this.maxConcurrent = maxConcurrent;
+			this.maxQueued = maxQueued;
+			this.lanes = new ArrayDeque[Request.Priority.values().length];
+			for (int i = 0; i < lanes.length; i++)
+				lanes[i] = new ArrayDeque<>();
+		}
+
+		boolean isSaturated() {
+			return maxConcurrent > 0 && inFlight >= maxConcurrent;
+		}
+	}
+
+	final private Group shared = new Group(0, 0);
+	final private Map<String, Group> bulkheads = new HashMap<>();
+
+	/**
+	 * The shared group followed by all bulkheads.
+	 */
+	private Group[] groups = {shared};
+	final private IntSupplier limit;
+	/**
+	 * Reserves the tokens of an admitted task, returns 0 on success, otherwise the milliseconds to wait before trying again.
+	 */
+	final private ToLongFunction<Task> tokens;
+	final private ScheduledExecutorService timer;
+
+	private int inFlight = 0;
+	private int queued = 0;
+	private long seq = 0;
+
+	/**
+	 * Maximum number of queued requests, 0 for unbounded.
+	 */
+	private int capacity = 0;
+	private KeepaAPI.QueuePolicy policy = KeepaAPI.QueuePolicy.BLOCK;
+
+	/**
+	 * Time (nanoTime) of the next scheduled token wake-up, 0 if none.
+	 */
+	private long wakeUpAt = 0;
+
+	/**
+	 * Set by {@link #shutdown(Runnable)}, no request is accepted afterwards.
+	 */
+	private boolean shutdown = false;
+
+	/**
+	 * Runs once no request is queued or in flight anymore after {@link #shutdown(Runnable)}, null if none or already run.
+	 */
+	private Runnable onIdle;
+
+	RequestDispatcher(IntSupplier limit, ToLongFunction<Task> tokens, ScheduledExecutorService timer) {
+		this.limit = limit;
+		this.tokens = tokens;
+		this.timer = timer;
+	}
+
+	synchronized void setCapacity(int capacity, KeepaAPI.QueuePolicy policy) {
+		this.capacity = capacity;
+		this.policy = policy;
+		notifyAll();
+	}
+
+	void setBulkhead(String path, int maxConcurrent, int maxQueued) {
+		synchronized (this) {
+			Group group = bulkheads.get(path);
+			if (group == null) {
+				group = new Group(maxConcurrent, maxQueued);
+				bulkheads.put(path, group);
+				groups = Arrays.copyOf(groups, groups.length + 1);
+				groups[groups.length - 1] = group;
+			} else {
+				group.maxConcurrent = maxConcurrent;
+				group.maxQueued = maxQueued;
+			}
+		}
+		pump();
+	}
+
+	void submit(Task task) {
+		Task refused = null;
+		synchronized (this) {
+			Group group = bulkheads.getOrDefault(task.path, shared);
+			if (shutdown || (!task.retry && group.maxQueued > 0 && group.queued >= group.maxQueued))
+				refused = task;
+
+			while (refused == null && !task.retry && capacity > 0 && queued >= capacity) {
+				if (shutdown) {
+					refused = task;
+					break;
+				} else if (policy == KeepaAPI.QueuePolicy.BLOCK) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						refused = task;
+						break;
+					}
+				} else if (policy == KeepaAPI.QueuePolicy.SHED_LOWEST_PRIORITY && (refused = shedBelow(task.priority)) != null) {
+					break;
+				} else {
+					refused = task;
+					break;
+				}
+			}
+
+			if (refused != task) {
+				task.group = group;
+				task.seq = seq++;
+				group.lanes[task.priority.ordinal()].addLast(task);
+				group.queued++;
+				queued++;
+			}
+		}
+
+		if (refused == task && isShutdown())
+			refused.abort.accept(KeepaAPI.ResponseStatus.FAIL, new RejectedExecutionException("KeepaAPI shut down"));
+		else if (refused != null)
+			refused.abort.accept(KeepaAPI.ResponseStatus.QUEUE_FULL, new RejectedExecutionException("Request queue full"));
+		pump();
+	}
+
+	/**
+	 * Stops accepting requests, the queued requests are still admitted and sent.
+	 *
+	 * @param onIdle run once no request is queued or in flight anymore, may be null
+	 */
+	void shutdown(Runnable onIdle) {
+		synchronized (this) {
+			shutdown = true;
+			this.onIdle = onIdle;
+			notifyAll(); // refuses blocked submitters
+		}
+		runIfIdle();
+	}
+
+	synchronized boolean isShutdown() {
+		return shutdown;
+	}
+
+	private void runIfIdle() {
+		Runnable action;
+		synchronized (this) {
+			if (onIdle == null || queued > 0 || inFlight > 0)
+				return;
+			action = onIdle;
+			onIdle = null;
+		}
+		action.run();
+	}
+
+	/**
+	 * Removes the most recently queued request of the lowest priority lane, if that priority is lower than the given one.
+	 * Must hold the lock.
+	 */
+	private Task shedBelow(Request.Priority priority) {
+		for (int i = Request.Priority.values().length - 1; i > priority.ordinal(); i--) {
+			Task newest = null;
+			for (Group group : groups) {
+				Task task = group.lanes[i].peekLast();
+				if (task != null && (newest == null || task.seq > newest.seq))
+					newest = task;
+			}
+
+			if (newest != null) {
+				newest.group.lanes[i].pollLast();
+				newest.group.queued--;
+				queued--;
+				return newest;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Frees the concurrency slot of a finished request.
+	 */
+	void release(Task task) {
+		synchronized (this) {
+			inFlight--;
+			task.group.inFlight--;
+		}
+		pump();
+		runIfIdle();
+	}
+
+	/**
+	 * Releases the slot of a request that was refused in its {@link Task#start} callback without being sent.
+	 * Unlike {@link #release(Task)} this does not pump, as the pump that called start admits the next request.
+	 */
+	void refuse(Task task) {
+		synchronized (this) {
+			inFlight--;
+			task.group.inFlight--;
+		}
+		runIfIdle();
+	}
+
+	/**
+	 * Removes a request that has not been admitted yet from the queue.
+	 *
+	 * @return true if the request was still queued
+	 */
+	boolean remove(Task task) {
+		synchronized (this) {
+			if (task.group == null || !task.group.lanes[task.priority.ordinal()].remove(task))
+				return false;
+			task.group.queued--;
+			if (--queued < capacity)
+				notifyAll();
+		}
+		pump(); // the removed request may have blocked the queue head while waiting for tokens
+		runIfIdle();
+		return true;
+	}
+
+	/**
+	 * Drops all queued requests, e.g. on shutdown.
+	 */
+	void abortAll(Exception cause) {
+		ArrayDeque<Task> dropped = new ArrayDeque<>();
+		synchronized (this) {
+			for (Group group : groups) {
+				for (ArrayDeque<Task> lane : group.lanes) {
+					dropped.addAll(lane);
+					lane.clear();
+				}
+				group.queued = 0;
+			}
+			queued = 0;
+			notifyAll();
+		}
+
+		for (Task task : dropped)
+			task.abort.accept(KeepaAPI.ResponseStatus.FAIL, cause);
+		runIfIdle();
+	}
+
+	synchronized int getQueueDepth() {
+		return queued;
+	}
+
+	synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	/**
+	 * Starts queued requests as long as slots and tokens are available.
+	 */
+	void pump() {
+		while (true) {
+			Task next;
+			synchronized (this) {
+				if (inFlight >= limit.getAsInt())
+					return;
+
+				next = peek();
+				if (next == null)
+					return;
+
+				long wait = tokens.applyAsLong(next);
+				if (wait > 0) {
+					scheduleWakeUp(wait);
+					return;
+				}
+
+				next.group.lanes[next.priority.ordinal()].pollFirst();
+				next.group.queued--;
+				if (--queued < capacity)
+					notifyAll();
+				next.group.inFlight++;
+				inFlight++;
+			}
+			next.start.accept(next);
+		}
+	}
+
+	/**
+	 * @return the oldest request of the highest priority among the groups that are not saturated
+	 */
+	private Task peek() {
+		for (int i = 0; i < Request.Priority.values().length; i++) {
+			Task oldest = null;
+			for (Group group : groups) {
+				if (group.isSaturated())
+					continue;
+				Task task = group.lanes[i].peekFirst();
+				if (task != null && (oldest == null || task.seq < oldest.seq))
+					oldest = task;
+			}
+			if (oldest != null)
+				return oldest;
+		}
+		return null;
+	}
+
+	private void scheduleWakeUp(long wait) {
+		long at = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(wait);
+		if (wakeUpAt != 0 && wakeUpAt - at <= 0)
+			return; // an earlier wake-up is already scheduled
+
+		wakeUpAt = at;
+		try {
+			timer.schedule(() -> {
+				synchronized (this) {
+					if (wakeUpAt == at)
+						wakeUpAt = 0;
+				}
+				pump();
+			}, wait, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException ignored) {
+			// shut down
+		}
+	}
+}
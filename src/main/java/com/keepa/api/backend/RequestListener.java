@@ -0,0 +1,60 @@
+package com.keepa.api.backend;
+
+import com.keepa.api.backend.structs.Request;
+import com.keepa.api.backend.structs.Response;
+
+/**
+ * Callbacks on the lifecycle of the requests of a {@link KeepaAPI} instance, e.g. for tracing, cost attribution or sampling.
+ * Register with {@link KeepaAPI#addRequestListener(RequestListener)}.
+ * <p>
+ * A request that is retried passes through queued, sent, first byte and response once per attempt.
+ * Callbacks run on the thread that queues, sends or receives the request, so a slow listener delays that request.
+ * Exceptions thrown by a listener are ignored. All methods do nothing by default.
+ * </p>
+ */
+public interface RequestListener {
+	/**
+	 * The request was queued for admission.
+	 */
+	default void onQueued(Request request) {
+	}
+
+	/**
+	 * The request was admitted and is handed to the transport.
+	 */
+	default void onSent(Request request) {
+	}
+
+	/**
+	 * The response headers were received, the body is about to be read.
+	 *
+	 * @param statusCode the HTTP status code
+	 */
+	default void onFirstByte(Request request, int statusCode) {
+	}
+
+	/**
+	 * An attempt of the request completed, successfully or not.
+	 *
+	 * @param response the parsed response, including {@link Response#timings}
+	 */
+	default void onResponse(Request request, Response response) {
+	}
+
+	/**
+	 * The attempt failed and another one is scheduled.
+	 *
+	 * @param response the response of the failed attempt
+	 * @param delay    time in milliseconds until the next attempt
+	 */
+	default void onRetryScheduled(Request request, Response response, long delay) {
+	}
+
+	/**
+	 * The call did not succeed and will not be tried again: the request failed, was cancelled or exceeded its deadline.
+	 *
+	 * @param response the final response
+	 */
+	default void onGiveUp(Request request, Response response) {
+	}
+}
@@ -0,0 +1,44 @@
+package com.keepa.api.backend;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Measures the time spent in reads of the wrapped stream, when it reached its end and the number of bytes read,
+ * for {@link com.keepa.api.backend.structs.RequestTimings}.
+ */
+final class TimingInputStream extends FilterInputStream {
+	long nanos = 0;
+	long eofAt = 0;
+	long bytes = 0;
+
+	TimingInputStream(InputStream in) {
+		super(in);
+	}
+
+	@Override
+	public int read() throws IOException {
+		long start = System.nanoTime();
+		int b = in.read();
+		done(start, b == -1 ? -1 : 1);
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		long start = System.nanoTime();
+		int n = in.read(b, off, len);
+		done(start, n);
+		return n;
+	}
+
+	private void done(long start, int read) {
+		long now = System.nanoTime();
+		nanos += now - start;
+		if (read > 0)
+			bytes += read;
+		else if (read == -1 && eofAt == 0)
+			eofAt = now;
+	}
+}
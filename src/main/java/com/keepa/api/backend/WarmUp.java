@@ -0,0 +1,35 @@
+package com.keepa.api.backend;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Synthetic API response for {@link KeepaAPI#warmUp(int)}. Contains the commonly used nested structures,
+ * so parsing it creates the Gson type adapters of the response classes and loads them.
+ */
+final class WarmUp {
+	final private static String RESPONSE = "{\"timestamp\":0,\"tokensLeft\":0,\"refillIn\":0,\"refillRate\":0,\"tokensConsumed\":0," +
+			"\"products\":[{\"asin\":\"B000000000\",\"csv\":[[0,100],null]," +
+			"\"categoryTree\":[{\"catId\":1,\"name\":\"\"}]," +
+			"\"stats\":{\"current\":[100],\"avg\":[100]}," +
+			"\"offers\":[{\"offerId\":0,\"sellerId\":\"\",\"offerCSV\":[0,100,0]}],\"liveOffersOrder\":[0]}]," +
+			"\"categories\":{\"1\":{\"catId\":1,\"name\":\"\"}}," +
+			"\"sellers\":{\"A\":{\"sellerId\":\"A\"}}," +
+			"\"deals\":{\"dr\":[{\"asin\":\"B000000000\"}]}}";
+
+	private WarmUp() {
+	}
+
+	static byte[] gzippedResponse() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+			gzip.write(RESPONSE.getBytes(StandardCharsets.UTF_8));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,20 @@
+package com.keepa.api.backend.exceptions;
+
+import com.keepa.api.backend.structs.Response;
+
+/**
+ * Completes the futures of the asynchronous KeepaAPI methods if the request did not succeed.
+ * The {@link #response} holds the status and, if available, the error returned by the API.
+ */
+public class RequestFailedException extends KeepaAPIException {
+    private static final long serialVersionUID = 1L;
+
+    public final Response response;
+
+    public RequestFailedException(Response response) {
+        super("Request failed: " + response.status);
+        this.response = response;
+        if (response.exception != null)
+            initCause(response.exception);
+    }
+}
@@ -0,0 +1,102 @@
+package com.keepa.api.backend.helper;
+
+import com.keepa.api.backend.KeepaAPI;
+import com.keepa.api.backend.structs.Request;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A set of API keys a single {@link KeepaAPI} instance distributes its requests over, see {@link KeepaAPI#setAccessKeyPool(AccessKeyPool)}.
+ * <p>
+ * The token balance of each key is modeled by its process wide {@link TokenGovernor#forKey(String)}, which is updated with the
+ * <code>tokensLeft</code> and <code>refillRate</code> of every response sent with that key.
+ * Each request is sent with the key with the most headroom, i.e. the highest modeled balance, so the throughput scales with the number of keys.
+ * Keys without token information yet are tried first, in turns, so a startup burst is spread over them until their first responses arrive.
+ * Requests are only held back while all keys are depleted.
+ * </p>
+ * Pools and KeepaAPI instances of this process that use the same key share its balance.
+ */
+public class AccessKeyPool {
+	final private List<String> keys;
+	final private TokenGovernor[] governors;
+
+	/**
+	 * Key the next reservation starts with, so keys of equal rank, e.g. all keys without token information yet, take turns.
+	 */
+	private int next = 0;
+
+	/**
+	 * @param accessKeys Your private API Access Tokens
+	 */
+	public AccessKeyPool(String... accessKeys) {
+		if (accessKeys.length == 0)
+			throw new IllegalArgumentException("At least one access key is required");
+
+		this.keys = Collections.unmodifiableList(Arrays.asList(accessKeys.clone()));
+		this.governors = new TokenGovernor[accessKeys.length];
+		for (int i = 0; i < accessKeys.length; i++)
+			governors[i] = TokenGovernor.forKey(accessKeys[i]);
+	}
+
+	/**
+	 * Reserves the estimated cost of a request with the key that has the most headroom.
+	 *
+	 * @param cost     estimated token cost of the request
+	 * @param priority priority of the request
+	 * @return the key the tokens were reserved for, or null if all keys are depleted, see {@link #getWait(Request.Priority)}
+	 */
+	public synchronized String reserve(int cost, Request.Priority priority) {
+		Integer[] order = new Integer[governors.length];
+		boolean[] known = new boolean[governors.length];
+		double[] headroom = new double[governors.length];
+		for (int i = 0; i < governors.length; i++) {
+			order[i] = (next + i) % governors.length;
+			known[i] = governors[i].isKnown();
+			headroom[i] = governors[i].getTokens();
+		}
+		next = (next + 1) % governors.length;
+		// stable, ties keep the rotated order
+		Arrays.sort(order, (a, b) -> {
+			if (known[a] != known[b])
+				return Boolean.compare(known[a], known[b]);
+			return known[a] ? Double.compare(headroom[b], headroom[a]) : 0;
+		});
+
+		for (int i : order) {
+			if (governors[i].reserve(cost, priority) == 0)
+				return keys.get(i);
+		}
+		return null;
+	}
+
+	/**
+	 * @param priority priority of a request
+	 * @return 0 if a request of the given priority would be admitted now, otherwise the milliseconds until the first key has tokens again
+	 */
+	public long getWait(Request.Priority priority) {
+		long wait = Long.MAX_VALUE;
+		for (TokenGovernor governor : governors)
+			wait = Math.min(wait, governor.getWait(priority));
+		return wait;
+	}
+
+	/**
+	 * @param accessKey one of the keys of this pool
+	 * @return the governor modeling the token balance of the key
+	 */
+	public TokenGovernor getGovernor(String accessKey) {
+		int index = keys.indexOf(accessKey);
+		if (index < 0)
+			throw new IllegalArgumentException("Unknown access key");
+		return governors[index];
+	}
+
+	/**
+	 * @return the keys of this pool
+	 */
+	public List<String> getKeys() {
+		return keys;
+	}
+}
@@ -0,0 +1,132 @@
+package com.keepa.api.backend.helper;
+
+import com.keepa.api.backend.KeepaAPI;
+import com.keepa.api.backend.structs.Request;
+import com.keepa.api.backend.structs.Response;
+
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Read timeouts derived from the observed latencies, per endpoint and request size.
+ * <p>
+ * Requests are grouped by {@link Request#path} and the power of two of their {@link Request#getEstimatedTokenCost() estimated token cost},
+ * which grows with the number of ASINs and offer pages, so a single ASIN lookup and a 100 ASIN offers request get separate timeouts.
+ * Once a group has enough successful responses its read timeout is a high percentile of the recent latencies times a safety factor,
+ * so stuck calls are reclaimed quickly while heavy calls keep the time they need. A timed out request doubles the timeout of its group.
+ * Until then the timeout passed to {@link KeepaAPI#sendRequest(Request, int, int)} is used.
+ * </p>
+ * Each group keeps the latencies of its last 1000 successful responses, so timeouts follow changes of the API's response times.
+ */
+public class AdaptiveTimeouts {
+	/**
+	 * Number of recent latencies kept per group.
+	 */
+	final private static int WINDOW = 1000;
+
+	/**
+	 * Minimum number of latencies before the timeout of a group is derived from them.
+	 */
+	final private static int MIN_SAMPLES = 50;
+
+	/**
+	 * The timeout is recomputed after this many new latencies.
+	 */
+	final private static int RECOMPUTE_INTERVAL = 50;
+
+	private final class Group {
+		final private long[] latencies = new long[WINDOW];
+		private int count = 0;
+		private int next = 0;
+		private int sinceUpdate = 0;
+		private volatile int timeout = 0;
+
+		synchronized void add(long latency) {
+			latencies[next] = latency;
+			next = (next + 1) % WINDOW;
+			count = Math.min(count + 1, WINDOW);
+			if (++sinceUpdate >= RECOMPUTE_INTERVAL && count >= MIN_SAMPLES) {
+				sinceUpdate = 0;
+				long[] sorted = Arrays.copyOf(latencies, count);
+				Arrays.sort(sorted);
+				long value = sorted[Math.min(count - 1, (int) Math.ceil(count * percentile / 100) - 1)];
+				timeout = clamp(value * safetyFactor);
+			}
+		}
+
+		synchronized void onTimeout(int usedTimeout) {
+			timeout = clamp(Math.max(timeout, usedTimeout) * 2.0);
+			sinceUpdate = 0;
+		}
+	}
+
+	final private ConcurrentHashMap<String, Group> groups = new ConcurrentHashMap<>();
+	final private double percentile;
+	final private double safetyFactor;
+	final private int minTimeout;
+	final private int maxTimeout;
+
+	/**
+	 * @param percentile   latency percentile the timeout is based on, e.g. 99.9
+	 * @param safetyFactor factor applied to the percentile
+	 * @param minTimeout   lower bound of the timeout, in milliseconds
+	 * @param maxTimeout   upper bound of the timeout, in milliseconds
+	 */
+	public AdaptiveTimeouts(double percentile, double safetyFactor, int minTimeout, int maxTimeout) {
+		this.percentile = Math.min(100, Math.max(1, percentile));
+		this.safetyFactor = Math.max(1, safetyFactor);
+		this.minTimeout = minTimeout;
+		this.maxTimeout = Math.max(minTimeout, maxTimeout);
+	}
+
+	/**
+	 * Timeouts of 3 times the 99.9th latency percentile, between 5 seconds and 5 minutes.
+	 */
+	public AdaptiveTimeouts() {
+		this(99.9, 3, 5000, 300000);
+	}
+
+	/**
+	 * @param request        the request to send
+	 * @param defaultTimeout the timeout to use while there are not enough latencies for the request's group
+	 * @return the read timeout for the request, in milliseconds
+	 */
+	public int getReadTimeout(Request request, int defaultTimeout) {
+		Group group = groups.get(key(request));
+		int timeout = group != null ? group.timeout : 0;
+		return timeout > 0 ? timeout : defaultTimeout;
+	}
+
+	/**
+	 * Adds the latency of a completed request.
+	 *
+	 * @param request     the request
+	 * @param response    its response
+	 * @param usedTimeout the read timeout the request was sent with
+	 */
+	public void onResponse(Request request, Response response, int usedTimeout) {
+		if (response.status == KeepaAPI.ResponseStatus.OK)
+			group(request).add(response.requestTime);
+		else if (isTimeout(response.exception))
+			group(request).onTimeout(usedTimeout);
+	}
+
+	private Group group(Request request) {
+		return groups.computeIfAbsent(key(request), k -> new Group());
+	}
+
+	private static String key(Request request) {
+		int sizeClass = 32 - Integer.numberOfLeadingZeros(request.getEstimatedTokenCost());
+		return request.path + '#' + sizeClass;
+	}
+
+	private static boolean isTimeout(Exception e) {
+		return e instanceof SocketTimeoutException
+				|| (e != null && e.getClass().getName().equals("java.net.http.HttpTimeoutException")); // Java 11 HttpClient
+	}
+
+	private int clamp(double timeout) {
+		return (int) Math.min(maxTimeout, Math.max(minTimeout, timeout));
+	}
+}
@@ -0,0 +1,192 @@
+package com.keepa.api.backend.helper;
+
+import com.keepa.api.backend.KeepaAPI;
+import com.keepa.api.backend.structs.Response;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Circuit breaker per endpoint ({@link com.keepa.api.backend.structs.Request#path}).
+ * <p>
+ * After <code>failureThreshold</code> consecutive failures ({@link KeepaAPI.ResponseStatus#FAIL} or
+ * {@link KeepaAPI.ResponseStatus#INTERNAL_SERVER_ERROR}) the circuit of the endpoint opens: requests are refused
+ * with {@link KeepaAPI.ResponseStatus#CIRCUIT_OPEN} without calling the API, retrying requests wait until the circuit closes again.
+ * The permit is taken when a request leaves the queue, so queued requests neither hold probe slots nor bypass a circuit that opened meanwhile.
+ * Once <code>openDuration</code> has passed the circuit is half-open and lets up to <code>halfOpenProbes</code> requests through.
+ * A successful probe closes the circuit, a failed one opens it again.
+ * </p>
+ * Share one breaker between several KeepaAPI instances to open the circuits on their combined failures.
+ */
+public class CircuitBreaker {
+	public enum State {
+		CLOSED,
+		OPEN,
+		HALF_OPEN
+	}
+
+	/**
+	 * Admission of one request, must be followed by either {@link #onResponse(Response)} or {@link #release()}.
+	 */
+	public static final class Permit {
+		final private Circuit circuit;
+		final private boolean probe;
+
+		private Permit(Circuit circuit, boolean probe) {
+			this.circuit = circuit;
+			this.probe = probe;
+		}
+
+		/**
+		 * Records the outcome of the request.
+		 */
+		public void onResponse(Response response) {
+			circuit.onResponse(response.status == KeepaAPI.ResponseStatus.FAIL || response.status == KeepaAPI.ResponseStatus.INTERNAL_SERVER_ERROR, probe);
+		}
+
+		/**
+		 * Returns the permit of a request that was not sent, e.g. because it was cancelled.
+		 */
+		public void release() {
+			circuit.release(probe);
+		}
+	}
+
+	private final class Circuit {
+		private State state = State.CLOSED;
+		private int failures = 0;
+		private long openUntil = 0;
+		private int probes = 0;
+
+		synchronized Permit tryAcquire() {
+			if (state == State.OPEN && now() >= openUntil)
+				state = State.HALF_OPEN;
+
+			switch (state) {
+				case CLOSED:
+					return new Permit(this, false);
+				case HALF_OPEN:
+					if (probes < halfOpenProbes) {
+						probes++;
+						return new Permit(this, true);
+					}
+					return null; // all probes in flight
+				default:
+					return null;
+			}
+		}
+
+		synchronized void onResponse(boolean failed, boolean probe) {
+			if (probe) {
+				probes--;
+				if (state != State.HALF_OPEN)
+					return;
+				if (failed)
+					open();
+				else {
+					state = State.CLOSED;
+					failures = 0;
+				}
+			} else if (state == State.CLOSED) {
+				if (!failed)
+					failures = 0;
+				else if (++failures >= failureThreshold)
+					open();
+			}
+			// responses of requests sent before the circuit opened are ignored
+		}
+
+		synchronized void release(boolean probe) {
+			if (probe)
+				probes--;
+		}
+
+		synchronized long getRetryDelay() {
+			if (state == State.OPEN && now() < openUntil)
+				return openUntil - now();
+			return state == State.CLOSED ? 0 : probeWait;
+		}
+
+		synchronized boolean isOpen() {
+			return state == State.OPEN && now() < openUntil;
+		}
+
+		synchronized State getState() {
+			return state;
+		}
+
+		private void open() {
+			state = State.OPEN;
+			openUntil = now() + openDuration;
+			failures = 0;
+		}
+	}
+
+	final private ConcurrentHashMap<String, Circuit> circuits = new ConcurrentHashMap<>();
+	final private int failureThreshold;
+	final private long openDuration;
+	final private int halfOpenProbes;
+
+	/**
+	 * Time retrying requests wait while the probes of a half-open circuit are in flight.
+	 */
+	final private long probeWait;
+
+	/**
+	 * @param failureThreshold number of consecutive failures that open the circuit
+	 * @param openDuration     time in milliseconds the circuit stays open before probe requests are let through
+	 * @param halfOpenProbes   maximum number of concurrent probe requests while half-open
+	 */
+	public CircuitBreaker(int failureThreshold, long openDuration, int halfOpenProbes) {
+		this.failureThreshold = Math.max(1, failureThreshold);
+		this.openDuration = openDuration;
+		this.halfOpenProbes = Math.max(1, halfOpenProbes);
+		this.probeWait = Math.max(100, openDuration / 10);
+	}
+
+	/**
+	 * Circuit breaker opening after 5 consecutive failures for 10 seconds, with a single probe request.
+	 */
+	public CircuitBreaker() {
+		this(5, 10000, 1);
+	}
+
+	/**
+	 * @param path the endpoint of the request
+	 * @return the permit to send the request or null if the circuit of the endpoint is open
+	 */
+	public Permit tryAcquire(String path) {
+		return circuit(path).tryAcquire();
+	}
+
+	/**
+	 * @param path the endpoint of the request
+	 * @return the time in milliseconds until a refused request should be tried again, 0 if the circuit is closed
+	 */
+	public long getRetryDelay(String path) {
+		return circuit(path).getRetryDelay();
+	}
+
+	/**
+	 * @param path the endpoint
+	 * @return true while the circuit of the endpoint is open and refuses all requests
+	 */
+	public boolean isOpen(String path) {
+		return circuit(path).isOpen();
+	}
+
+	/**
+	 * @param path the endpoint
+	 * @return the state of the endpoint's circuit
+	 */
+	public State getState(String path) {
+		return circuit(path).getState();
+	}
+
+	private Circuit circuit(String path) {
+		return circuits.computeIfAbsent(path != null ? path : "", p -> new Circuit());
+	}
+
+	private static long now() {
+		return System.nanoTime() / 1000000;
+	}
+}
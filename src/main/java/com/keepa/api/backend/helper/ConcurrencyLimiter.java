@@ -0,0 +1,95 @@
+package com.keepa.api.backend.helper;
+
+import com.keepa.api.backend.KeepaAPI;
+import com.keepa.api.backend.structs.Response;
+
+/**
+ * Adaptive limit for the number of concurrent requests (AIMD with a latency gradient).
+ * <p>
+ * The limit grows by about one request per round-trip while the limit is fully used and latencies stay low.
+ * It is cut multiplicatively when the API answers with {@link KeepaAPI.ResponseStatus#NOT_ENOUGH_TOKEN} or
+ * {@link KeepaAPI.ResponseStatus#INTERNAL_SERVER_ERROR}, and shrinks gently while the client side latency
+ * (<code>requestTime - processingTimeInMs</code>: queueing, network and transfer) rises well above the lowest observed value.
+ * </p>
+ * The limit is derived from the number of requests in flight of the KeepaAPI instance it is set on, so it can not be shared between instances.
+ */
+public class ConcurrencyLimiter {
+	/**
+	 * Factor applied to the limit on overload responses.
+	 */
+	final private static double BACKOFF_RATIO = 0.7;
+
+	/**
+	 * The limit shrinks once the latency exceeds its baseline by this factor.
+	 */
+	final private static double LATENCY_TOLERANCE = 2.0;
+
+	/**
+	 * The latency baseline is raised by 10% every this many samples, so it follows lasting changes of the network.
+	 */
+	final private static int BASELINE_DECAY_SAMPLES = 500;
+
+	final private int minLimit;
+	final private int maxLimit;
+
+	private double limit;
+	private double baselineLatency = Double.MAX_VALUE;
+	private int samples = 0;
+
+	/**
+	 * @param initialLimit the initial concurrency limit
+	 * @param minLimit     the limit never drops below this value, at least 1
+	 * @param maxLimit     the limit never grows above this value
+	 */
+	public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+		this.minLimit = Math.max(1, minLimit);
+		this.maxLimit = Math.max(this.minLimit, maxLimit);
+		this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+	}
+
+	/**
+	 * Limiter starting at 4 concurrent requests, adapting between 1 and 256.
+	 */
+	public ConcurrencyLimiter() {
+		this(4, 1, 256);
+	}
+
+	/**
+	 * @return the current concurrency limit
+	 */
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	/**
+	 * Adapts the limit to the outcome of a completed request.
+	 *
+	 * @param response the response of the request
+	 * @param inFlight the number of requests in flight, including this one, when it completed
+	 */
+	public synchronized void onResponse(Response response, int inFlight) {
+		switch (response.status) {
+			case NOT_ENOUGH_TOKEN:
+			case INTERNAL_SERVER_ERROR:
+				limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+				return;
+			case OK:
+				break;
+			default:
+				return; // no signal about the server's load
+		}
+
+		double latency = Math.max(1, response.requestTime - response.processingTimeInMs);
+		if (++samples % BASELINE_DECAY_SAMPLES == 0 && baselineLatency != Double.MAX_VALUE)
+			baselineLatency *= 1.1;
+		baselineLatency = Math.min(baselineLatency, latency);
+
+		if (latency > baselineLatency * LATENCY_TOLERANCE) {
+			// gradient: shrink in proportion to how far the latency is above its baseline
+			double gradient = Math.max(0.5, baselineLatency * LATENCY_TOLERANCE / latency);
+			limit = Math.max(minLimit, limit - (1 - gradient));
+		} else if (inFlight >= (int) limit) {
+			limit = Math.min(maxLimit, limit + 1 / limit);
+		}
+	}
+}
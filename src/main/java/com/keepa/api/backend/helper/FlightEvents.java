@@ -0,0 +1,49 @@
+package com.keepa.api.backend.helper;
+
+import com.keepa.api.backend.KeepaAPI;
+import com.keepa.api.backend.structs.Request;
+import com.keepa.api.backend.structs.Response;
+
+/**
+ * JDK Flight Recorder events of the request lifecycle (Java 11+): queue wait, request (with the duration of each phase) and retry.
+ * The events are in the category "Keepa API" and are recorded like any other JFR event, e.g. with <code>-XX:StartFlightRecording</code>.
+ * This is the Java 8 variant, which records nothing. The multi-release jar provides the implementation for Java 11 and newer.
+ */
+public class FlightEvents {
+
+	/**
+	 * Starts the queue wait event of a request.
+	 *
+	 * @return the event, to pass to {@link #dequeued(Object)}, or null if not recording
+	 */
+	public static Object queued(Request request) {
+		return null;
+	}
+
+	/**
+	 * Ends the queue wait event.
+	 */
+	public static void dequeued(Object queueEvent) {
+	}
+
+	/**
+	 * Starts the event of a request that is being sent.
+	 *
+	 * @return the event, to pass to {@link #completed(Object, Request, Response)}, or null if not recording
+	 */
+	public static Object sending(Request request) {
+		return null;
+	}
+
+	/**
+	 * Ends the request event with the outcome and phase durations of the response.
+	 */
+	public static void completed(Object requestEvent, Request request, Response response) {
+	}
+
+	/**
+	 * Records that a retry of the request was scheduled.
+	 */
+	public static void retry(Request request, KeepaAPI.ResponseStatus cause, long delay) {
+	}
+}
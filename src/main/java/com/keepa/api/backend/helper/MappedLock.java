@@ -0,0 +1,75 @@
+package com.keepa.api.backend.helper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Lock on a long of a memory-mapped file that is shared by all processes that map the file.
+ * It holds an exclusive {@link FileLock} on the 8 bytes of the lock. A paused holder keeps the lock however long it pauses,
+ * and the operating system releases it when its process dies.
+ * Not reentrant, one thread of a process may hold it at a time.
+ */
+public class MappedLock {
+	final private Path file;
+	final private int offset;
+	private FileChannel channel;
+
+	/**
+	 * The lock acquired by this instance, null if not held.
+	 */
+	private FileLock held = null;
+
+	/**
+	 * @param file   the mapped file
+	 * @param offset position of the lock in the file, must be a multiple of 8
+	 * @throws IOException if the file can not be opened
+	 */
+	public MappedLock(Path file, int offset) throws IOException {
+		if (offset % 8 != 0)
+			throw new IllegalArgumentException("Offset must be a multiple of 8");
+		this.file = file;
+		this.offset = offset;
+		this.channel = open();
+	}
+
+	/**
+	 * Waits until the lock is acquired.
+	 *
+	 * @throws UncheckedIOException if the file can not be locked
+	 */
+	public void lock() {
+		boolean interrupted = Thread.interrupted(); // locking on an interrupted thread closes the channel
+		try {
+			if (!channel.isOpen()) // closed by an interrupt while waiting for the lock
+				channel = open();
+			held = channel.lock(offset, 8, false);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Releases the lock acquired with {@link #lock()}.
+	 */
+	public void unlock() {
+		try {
+			if (held != null)
+				held.release();
+		} catch (IOException ignored) {
+			// the channel was closed, which released the lock
+		} finally {
+			held = null;
+		}
+	}
+
+	private FileChannel open() throws IOException {
+		return FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+}
@@ -0,0 +1,430 @@
+package com.keepa.api.backend.helper;
+
+import com.keepa.api.backend.KeepaAPI;
+import com.keepa.api.backend.structs.Product;
+import com.keepa.api.backend.structs.Request;
+import com.keepa.api.backend.structs.Response;
+import com.keepa.api.backend.structs.Seller;
+import org.jdeferred.Deferred;
+import org.jdeferred.Promise;
+import org.jdeferred.impl.DeferredObject;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Front-end to {@link KeepaAPI} that merges concurrent product and seller lookups into batch requests.
+ * <p>
+ * Product requests by ASIN that are identical apart from their ASINs (same domain, stats, offers and other parameters) and arrive
+ * within a short window are sent as a single request for up to 100 ASINs. Seller requests are coalesced the same way per domain,
+ * up to 100 seller ids per request. Each caller's promise is resolved with a {@link Response} that only contains the products or sellers
+ * it asked for. Token and timing fields of that response describe the whole batch.
+ * All other requests, e.g. storefront seller requests, are passed through unchanged.
+ * </p>
+ * <p>
+ * Each caller's promise is rejected with {@link KeepaAPI.ResponseStatus#DEADLINE_EXCEEDED} once its own {@link Request#deadlineInMs}
+ * passes, the batch request itself only gets the latest remaining deadline of its callers and none if one of them has none.
+ * Batched requests are cancelled with {@link #cancel(Request)} rather than {@link KeepaAPI#cancel(Request)}.
+ * </p>
+ */
+public class RequestBatcher implements Closeable {
+	/**
+	 * Maximum number of items per batch request, as allowed by the API.
+	 */
+	final private static int MAX_BATCH_SIZE = 100;
+
+	final private KeepaAPI api;
+	final private long maxDelay;
+	final private boolean retry;
+	final private ScheduledExecutorService timer;
+
+	/**
+	 * Open batches by batch key.
+	 */
+	final private HashMap<String, Batch> batches = new HashMap<>();
+
+	/**
+	 * Callers waiting for a batch, pending or sent, by their request. See {@link #cancel(Request)}.
+	 */
+	final private HashMap<Request, List<Waiter>> waiting = new HashMap<>();
+
+	/**
+	 * Requests waiting for the same batch.
+	 */
+	private static class Batch {
+		final String key;
+		final Request template;
+		final String parameter;
+		final LinkedHashSet<String> items = new LinkedHashSet<>();
+		final List<Waiter> waiters = new ArrayList<>();
+		Request.Priority priority;
+		ScheduledFuture<?> flush;
+
+		/**
+		 * The merged request, once sent.
+		 */
+		Request request;
+
+		Batch(String key, Request template, String parameter) {
+			this.key = key;
+			this.template = template;
+			this.parameter = parameter;
+			this.priority = template.priority;
+		}
+	}
+
+	private static class Waiter {
+		final Request request;
+		final LinkedHashSet<String> items;
+		final Deferred<Response, Response, Void> deferred;
+		final AtomicBoolean done = new AtomicBoolean(false);
+
+		/**
+		 * Time (nanoTime) the caller's deadline passes, 0 if none.
+		 */
+		final long deadlineAt;
+		Batch batch;
+		ScheduledFuture<?> deadline;
+
+		Waiter(Request request, LinkedHashSet<String> items, Deferred<Response, Response, Void> deferred) {
+			this.request = request;
+			this.items = items;
+			this.deferred = deferred;
+			this.deadlineAt = request.deadlineInMs > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(request.deadlineInMs) : 0;
+		}
+
+		/**
+		 * Settles the promise, unless it was already settled, e.g. by a cancellation.
+		 */
+		void settle(Response response, boolean ok) {
+			if (done.compareAndSet(false, true))
+				deliver(response, ok);
+		}
+
+		/**
+		 * Settles the promise, {@link #done} must have been set by the caller.
+		 */
+		void deliver(Response response, boolean ok) {
+			if (deadline != null)
+				deadline.cancel(false);
+			if (ok)
+				deferred.resolve(response);
+			else
+				deferred.reject(response);
+		}
+	}
+
+	/**
+	 * @param api      the API used to send the batch requests
+	 * @param maxDelay maximum time, in milliseconds, a request waits for others to join its batch. A batch is sent immediately once it is full.
+	 * @param retry    if true batches are sent with {@link KeepaAPI#sendRequestWithRetry(Request)}, otherwise with {@link KeepaAPI#sendRequest(Request)}
+	 */
+	public RequestBatcher(KeepaAPI api, long maxDelay, boolean retry) {
+		this.api = api;
+		this.maxDelay = maxDelay;
+		this.retry = retry;
+		this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "KeepaAPI-Batcher");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Issue a request to the Keepa Price Data API, batched with concurrent requests if possible.
+	 *
+	 * @param r the API Request {@link Request}
+	 * @return Promise for {@link Response}
+	 */
+	public Promise<Response, Response, Void> sendRequest(Request r) {
+		String parameter = r != null ? getBatchParameter(r) : null;
+		if (parameter == null)
+			return send(r);
+
+		LinkedHashSet<String> items = new LinkedHashSet<>();
+		for (String item : r.parameter.get(parameter).split(","))
+			items.add(normalize(r.path, item.trim()));
+		if (items.size() > MAX_BATCH_SIZE)
+			return send(r);
+
+		Deferred<Response, Response, Void> deferred = new DeferredObject<>();
+		Waiter waiter = new Waiter(r, items, deferred);
+		String key = getBatchKey(r, parameter);
+		List<Batch> full = new ArrayList<>(2);
+
+		synchronized (this) {
+			Batch batch = batches.get(key);
+			if (batch != null) {
+				LinkedHashSet<String> merged = new LinkedHashSet<>(batch.items);
+				merged.addAll(items);
+				if (merged.size() > MAX_BATCH_SIZE) {
+					// does not fit anymore, send the current batch and start a new one
+					full.add(remove(batch));
+					batch = null;
+				}
+			}
+
+			if (batch == null) {
+				batch = new Batch(key, r, parameter);
+				batches.put(key, batch);
+				Batch scheduled = batch;
+				batch.flush = timer.schedule(() -> flush(scheduled), maxDelay, TimeUnit.MILLISECONDS);
+			}
+
+			batch.items.addAll(items);
+			batch.waiters.add(waiter);
+			waiter.batch = batch;
+			waiting.computeIfAbsent(r, k -> new ArrayList<>(1)).add(waiter);
+			if (r.deadlineInMs > 0)
+				waiter.deadline = timer.schedule(() -> cancel(waiter, KeepaAPI.ResponseStatus.DEADLINE_EXCEEDED, "Deadline of " + r.deadlineInMs + " ms exceeded"),
+						r.deadlineInMs, TimeUnit.MILLISECONDS);
+			if (r.priority != null && r.priority.ordinal() < batch.priority.ordinal())
+				batch.priority = r.priority;
+
+			if (batch.items.size() >= MAX_BATCH_SIZE)
+				full.add(remove(batch));
+		}
+
+		for (Batch batch : full)
+			sendBatch(batch);
+		return deferred.promise();
+	}
+
+	/**
+	 * Cancel the pending calls of the given request. A request still waiting for its batch is removed from it, the batch request is
+	 * only aborted once none of its callers is left. The promises are rejected with {@link KeepaAPI.ResponseStatus#CANCELLED}.
+	 *
+	 * @param r the request passed to {@link #sendRequest(Request)}
+	 * @return true if a pending call was cancelled
+	 */
+	public boolean cancel(Request r) {
+		List<Waiter> pending;
+		synchronized (this) {
+			pending = waiting.get(r);
+			pending = pending != null ? new ArrayList<>(pending) : null;
+		}
+		if (pending == null)
+			return api.cancel(r); // not batched
+
+		boolean cancelled = false;
+		for (Waiter waiter : pending)
+			cancelled |= cancel(waiter, KeepaAPI.ResponseStatus.CANCELLED, "Request cancelled");
+		return cancelled;
+	}
+
+	/**
+	 * Sends all open batches and stops the batch timer.
+	 */
+	@Override
+	public void close() {
+		List<Batch> open;
+		synchronized (this) {
+			open = new ArrayList<>(batches.values());
+			for (Batch batch : open)
+				remove(batch);
+		}
+
+		for (Batch batch : open)
+			sendBatch(batch);
+		timer.shutdown();
+	}
+
+	/**
+	 * @return the name of the parameter that holds the batchable items of the request or null if the request can not be batched
+	 */
+	private static String getBatchParameter(Request r) {
+		if (r.hasBody() || r.path == null)
+			return null;
+
+		if (r.path.equals("product") && r.parameter.containsKey("asin") && !r.parameter.containsKey("code"))
+			return "asin";
+		if (r.path.equals("seller") && r.parameter.containsKey("seller") && !r.parameter.containsKey("storefront"))
+			return "seller";
+		return null;
+	}
+
+	/**
+	 * Requests with the same key differ only in their batch parameter.
+	 */
+	private static String getBatchKey(Request r, String parameter) {
+		TreeMap<String, String> sorted = new TreeMap<>(r.parameter);
+		sorted.remove(parameter);
+		return r.path + "?" + sorted;
+	}
+
+	private static String normalize(String path, String item) {
+		return path.equals("product") ? item.toUpperCase() : item;
+	}
+
+	private void flush(Batch batch) {
+		synchronized (this) {
+			if (batches.get(batch.key) != batch)
+				return; // already sent
+			remove(batch);
+		}
+		sendBatch(batch);
+	}
+
+	/**
+	 * Must hold the lock.
+	 */
+	private Batch remove(Batch batch) {
+		batches.remove(batch.key);
+		if (batch.flush != null)
+			batch.flush.cancel(false);
+		return batch;
+	}
+
+	private void sendBatch(Batch batch) {
+		Request r = new Request();
+		r.path = batch.template.path;
+		r.parameter.putAll(batch.template.parameter);
+		r.priority = batch.priority;
+		List<Waiter> waiters;
+		synchronized (this) {
+			if (batch.waiters.isEmpty())
+				return; // all callers cancelled
+			r.parameter.put(batch.parameter, String.join(",", batch.items));
+
+			// the callers have their own deadline timers and a batch without callers is aborted, so it may run as long as the last one waits
+			long deadlineAt = 0;
+			for (Waiter waiter : batch.waiters) {
+				if (waiter.deadlineAt == 0) {
+					deadlineAt = 0;
+					break;
+				}
+				if (deadlineAt == 0 || waiter.deadlineAt - deadlineAt > 0)
+					deadlineAt = waiter.deadlineAt;
+			}
+			if (deadlineAt != 0)
+				r.deadlineInMs = (int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadlineAt - System.nanoTime()));
+			batch.request = r;
+			waiters = new ArrayList<>(batch.waiters);
+		}
+
+		send(r)
+				.done(result -> {
+					for (Waiter waiter : waiters) {
+						done(waiter);
+						waiter.settle(split(r.path, result, waiter.items), true);
+					}
+				})
+				.fail(result -> {
+					for (Waiter waiter : waiters) {
+						done(waiter);
+						waiter.settle(result, false);
+					}
+				});
+	}
+
+	/**
+	 * Rejects the caller's promise. A caller of a pending batch is removed from it, a sent batch is aborted once it has no callers left.
+	 *
+	 * @return false if the promise was already settled
+	 */
+	private boolean cancel(Waiter waiter, KeepaAPI.ResponseStatus status, String reason) {
+		Request sent = null;
+		synchronized (this) {
+			if (!waiter.done.compareAndSet(false, true))
+				return false;
+
+			Batch batch = waiter.batch;
+			batch.waiters.remove(waiter);
+			done(waiter);
+			if (batch.request != null) {
+				if (batch.waiters.isEmpty())
+					sent = batch.request;
+			} else if (batch.waiters.isEmpty()) {
+				if (batches.get(batch.key) == batch)
+					remove(batch);
+			} else {
+				batch.items.clear();
+				for (Waiter other : batch.waiters)
+					batch.items.addAll(other.items);
+			}
+		}
+
+		Response response = new Response();
+		response.status = status;
+		response.exception = new CancellationException(reason);
+		waiter.deliver(response, false);
+		if (sent != null)
+			api.cancel(sent);
+		return true;
+	}
+
+	/**
+	 * Unregisters the caller from {@link #waiting}.
+	 */
+	private synchronized void done(Waiter waiter) {
+		List<Waiter> list = waiting.get(waiter.request);
+		if (list != null && list.remove(waiter) && list.isEmpty())
+			waiting.remove(waiter.request);
+	}
+
+	private Promise<Response, Response, Void> send(Request r) {
+		return retry ? api.sendRequestWithRetry(r) : api.sendRequest(r);
+	}
+
+	/**
+	 * @return a copy of the batch response with only the results for the given items
+	 */
+	private static Response split(String path, Response batch, LinkedHashSet<String> items) {
+		Response response = copyMeta(batch);
+		if (batch.products != null) {
+			Map<String, Product> byAsin = new HashMap<>(batch.products.length * 2);
+			for (Product product : batch.products) {
+				if (product != null && product.asin != null)
+					byAsin.put(normalize(path, product.asin), product);
+			}
+
+			List<Product> products = new ArrayList<>(items.size());
+			for (String item : items) {
+				Product product = byAsin.get(item);
+				if (product != null)
+					products.add(product);
+			}
+			response.products = products.toArray(new Product[0]);
+		}
+
+		if (batch.sellers != null) {
+			response.sellers = new HashMap<>(items.size() * 2);
+			for (String item : items) {
+				Seller seller = batch.sellers.get(item);
+				if (seller != null)
+					response.sellers.put(item, seller);
+			}
+		}
+		return response;
+	}
+
+	private static Response copyMeta(Response batch) {
+		Response response = new Response();
+		response.timestamp = batch.timestamp;
+		response.tokensLeft = batch.tokensLeft;
+		response.refillIn = batch.refillIn;
+		response.refillRate = batch.refillRate;
+		response.requestTime = batch.requestTime;
+		response.processingTimeInMs = batch.processingTimeInMs;
+		response.tokenFlowReduction = batch.tokenFlowReduction;
+		response.tokensConsumed = batch.tokensConsumed;
+		response.status = batch.status;
+		response.statusCode = batch.statusCode;
+		response.error = batch.error;
+		response.additional = batch.additional;
+		response.exception = batch.exception;
+		response.timings = batch.timings;
+		return response;
+	}
+}
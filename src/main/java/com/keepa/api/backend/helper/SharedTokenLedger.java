@@ -0,0 +1,157 @@
+package com.keepa.api.backend.helper;
+
+import com.keepa.api.backend.structs.Request;
+import com.keepa.api.backend.structs.Response;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * A {@link TokenGovernor} whose token balance is kept in a memory-mapped file, so all processes of a host that use the same
+ * API key and file reserve their tokens from one shared balance instead of each assuming to own the whole balance.
+ * <p>
+ * Every operation runs under a {@link MappedLock} on the file and only takes microseconds. Refill times are based on the wall clock.
+ * Use one file per API key. If the file can not be locked, the process falls back to its own copy of the balance.
+ * </p>
+ * Reservations of a process that dies while its requests are in flight are not released, which lowers the modeled balance
+ * until the file is deleted.
+ */
+public class SharedTokenLedger extends TokenGovernor {
+	final private static ConcurrentHashMap<Path, SharedTokenLedger> ledgers = new ConcurrentHashMap<>();
+
+	/**
+	 * "KEEPATK1", marks an initialized file.
+	 */
+	final private static long MAGIC = 0x4b45455041544b31L;
+
+	// file layout, all values are longs
+	final private static int MAGIC_OFFSET = 0;
+	final private static int LOCK_OFFSET = 8;
+	final private static int KNOWN_OFFSET = 16;
+	final private static int TOKENS_OFFSET = 24;
+	final private static int REFILL_RATE_OFFSET = 32;
+	final private static int NEXT_REFILL_OFFSET = 40;
+	final private static int LAST_TIMESTAMP_OFFSET = 48;
+	final private static int IN_FLIGHT_COST_OFFSET = 56;
+	final private static int SIZE = 64;
+
+	final private MappedByteBuffer buffer;
+	final private MappedLock lock;
+
+	/**
+	 * @param file the ledger file, created if it does not exist
+	 * @return the ledger of this process for the given file
+	 * @throws IOException if the file can not be mapped
+	 */
+	public static SharedTokenLedger open(Path file) throws IOException {
+		try {
+			return ledgers.computeIfAbsent(file.toAbsolutePath().normalize(), path -> {
+				try {
+					return new SharedTokenLedger(path);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	private SharedTokenLedger(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE); // stays valid after the channel is closed
+		}
+		lock = new MappedLock(file, LOCK_OFFSET);
+	}
+
+	@Override
+	public synchronized long reserve(int cost, Request.Priority priority) {
+		return atomically(() -> super.reserve(cost, priority));
+	}
+
+	@Override
+	public synchronized void update(Response response, int cost) {
+		atomically(() -> {
+			super.update(response, cost);
+			return null;
+		});
+	}
+
+	@Override
+	public synchronized void release(int cost) {
+		atomically(() -> {
+			super.release(cost);
+			return null;
+		});
+	}
+
+	@Override
+	public synchronized long getWait(Request.Priority priority) {
+		return atomically(() -> super.getWait(priority));
+	}
+
+	@Override
+	public synchronized boolean isKnown() {
+		return atomically(super::isKnown);
+	}
+
+	@Override
+	public synchronized double getTokens() {
+		return atomically(super::getTokens);
+	}
+
+	@Override
+	long now() {
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * Runs the operation on the model with the state of the file, holding the file lock.
+	 */
+	private <T> T atomically(Supplier<T> operation) {
+		try {
+			lock.lock();
+		} catch (RuntimeException e) {
+			// governors are called while KeepaAPI admits requests and must not fail, fall back to the state last read from the file
+			return operation.get();
+		}
+		try {
+			load();
+			T result = operation.get();
+			store();
+			return result;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void load() {
+		if (buffer.getLong(MAGIC_OFFSET) != MAGIC) {
+			for (int offset = KNOWN_OFFSET; offset < SIZE; offset += 8)
+				buffer.putLong(offset, 0);
+			buffer.putLong(MAGIC_OFFSET, MAGIC);
+		}
+
+		known = buffer.getLong(KNOWN_OFFSET) != 0;
+		tokens = Double.longBitsToDouble(buffer.getLong(TOKENS_OFFSET));
+		refillRate = (int) buffer.getLong(REFILL_RATE_OFFSET);
+		nextRefill = buffer.getLong(NEXT_REFILL_OFFSET);
+		lastTimestamp = buffer.getLong(LAST_TIMESTAMP_OFFSET);
+		inFlightCost = (int) buffer.getLong(IN_FLIGHT_COST_OFFSET);
+	}
+
+	private void store() {
+		buffer.putLong(KNOWN_OFFSET, known ? 1 : 0);
+		buffer.putLong(TOKENS_OFFSET, Double.doubleToRawLongBits(tokens));
+		buffer.putLong(REFILL_RATE_OFFSET, refillRate);
+		buffer.putLong(NEXT_REFILL_OFFSET, nextRefill);
+		buffer.putLong(LAST_TIMESTAMP_OFFSET, lastTimestamp);
+		buffer.putLong(IN_FLIGHT_COST_OFFSET, inFlightCost);
+	}
+}
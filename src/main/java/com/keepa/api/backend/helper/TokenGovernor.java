@@ -0,0 +1,184 @@
+package com.keepa.api.backend.helper;
+
+import com.keepa.api.backend.structs.Request;
+import com.keepa.api.backend.structs.Response;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Client side model of the token balance of an API key.
+ * <p>
+ * The balance is taken from the <code>tokensLeft</code>, <code>refillIn</code> and <code>refillRate</code> fields of every response
+ * and extrapolated with the refill rate. Requests reserve their estimated cost before they are sent and are held back locally
+ * while the modeled balance is depleted, instead of being sent only to be answered with <code>NOT_ENOUGH_TOKEN</code>.
+ * </p>
+ * Use {@link #forKey(String)} to share one governor between all KeepaAPI instances of this process that use the same key.
+ */
+public class TokenGovernor {
+	final private static ConcurrentHashMap<String, TokenGovernor> governors = new ConcurrentHashMap<>();
+
+	/**
+	 * Tokens are generated once per minute.
+	 */
+	final private static long REFILL_INTERVAL = 60000;
+
+	/**
+	 * The token bucket holds at most the tokens generated within this many minutes.
+	 */
+	final private static int BUCKET_MINUTES = 60;
+
+	// the model, package-private so SharedTokenLedger can keep it in a file
+	boolean known = false;
+	double tokens = 0;
+	int refillRate = 0;
+	long nextRefill = 0;
+
+	/**
+	 * Server timestamp of the newest response the model is based on.
+	 */
+	long lastTimestamp = 0;
+
+	/**
+	 * Tokens kept back for higher priority requests, see {@link #setBulkReserve(int)}.
+	 */
+	private int bulkReserve = 0;
+
+	/**
+	 * Sum of the estimated costs of all requests currently in flight.
+	 */
+	int inFlightCost = 0;
+
+	/**
+	 * @param accessKey Your private API Access Token
+	 * @return the process wide governor of the given key
+	 */
+	public static TokenGovernor forKey(String accessKey) {
+		return governors.computeIfAbsent(accessKey, k -> new TokenGovernor());
+	}
+
+	/**
+	 * Keep the given number of tokens for {@link Request.Priority#NORMAL} and {@link Request.Priority#HIGH} requests.
+	 * {@link Request.Priority#BULK} requests are only admitted while the modeled balance is above the reserve, so they only use spare tokens.
+	 *
+	 * @param tokens the reserve, default 0
+	 */
+	public synchronized void setBulkReserve(int tokens) {
+		this.bulkReserve = tokens;
+	}
+
+	/**
+	 * Reserves the estimated cost of a request, if tokens are available.
+	 * As the API accepts requests as long as the balance is positive, a request is admitted whenever the modeled balance is above 0.
+	 *
+	 * @param cost estimated token cost of the request
+	 * @return 0 if the tokens were reserved and the request may be sent, otherwise the milliseconds to wait before trying again
+	 */
+	public long reserve(int cost) {
+		return reserve(cost, Request.Priority.NORMAL);
+	}
+
+	/**
+	 * Reserves the estimated cost of a request, if tokens are available for its priority.
+	 *
+	 * @param cost     estimated token cost of the request
+	 * @param priority priority of the request, {@link Request.Priority#BULK} requests must leave the bulk reserve untouched
+	 * @return 0 if the tokens were reserved and the request may be sent, otherwise the milliseconds to wait before trying again
+	 */
+	public synchronized long reserve(int cost, Request.Priority priority) {
+		long now = now();
+		refill(now);
+		long wait = getWait(priority, now);
+		if (wait == 0) {
+			tokens -= cost;
+			inFlightCost += cost;
+		}
+		return wait;
+	}
+
+	/**
+	 * @param priority priority of a request
+	 * @return 0 if a request of the given priority would be admitted now, otherwise the milliseconds until it would be
+	 */
+	public synchronized long getWait(Request.Priority priority) {
+		long now = now();
+		refill(now);
+		return getWait(priority, now);
+	}
+
+	private long getWait(Request.Priority priority, long now) {
+		int threshold = priority == Request.Priority.BULK ? bulkReserve : 0;
+		if (!known || tokens > threshold)
+			return 0;
+
+		if (refillRate <= 0)
+			return REFILL_INTERVAL;
+
+		long refills = (long) Math.floor((threshold - tokens) / refillRate) + 1;
+		return Math.max(1, nextRefill - now) + (refills - 1) * REFILL_INTERVAL;
+	}
+
+	/**
+	 * Returns the tokens reserved by a request that was not sent after all.
+	 *
+	 * @param cost the cost reserved with {@link #reserve(int)}
+	 */
+	public synchronized void release(int cost) {
+		inFlightCost = Math.max(0, inFlightCost - cost);
+		tokens += cost;
+	}
+
+	/**
+	 * Updates the model with the token information of a response to a request that reserved <code>cost</code> tokens.
+	 *
+	 * @param response the response, may be null if no response was received
+	 * @param cost     the cost reserved with {@link #reserve(int)}
+	 */
+	public synchronized void update(Response response, int cost) {
+		inFlightCost = Math.max(0, inFlightCost - cost);
+		if (response == null || (response.refillRate <= 0 && response.refillIn <= 0))
+			return; // no token information, e.g. network error
+
+		// requests still in flight may not yet be included in tokensLeft
+		double balance = response.tokensLeft - inFlightCost;
+		if (known && response.timestamp <= lastTimestamp) {
+			// responses of concurrent requests can arrive out of order, an older one may only lower the balance
+			tokens = Math.min(tokens, balance);
+			return;
+		}
+
+		refillRate = response.refillRate;
+		nextRefill = now() + response.refillIn;
+		lastTimestamp = response.timestamp;
+		tokens = balance;
+		known = true;
+	}
+
+	/**
+	 * @return true once a response with token information was received, until then all requests are admitted
+	 */
+	public synchronized boolean isKnown() {
+		return known;
+	}
+
+	/**
+	 * @return the currently modeled token balance, including reservations of requests in flight
+	 */
+	public synchronized double getTokens() {
+		refill(now());
+		return tokens;
+	}
+
+	private void refill(long now) {
+		if (!known || refillRate <= 0 || now < nextRefill) return;
+		long refills = (now - nextRefill) / REFILL_INTERVAL + 1;
+		tokens = Math.min(tokens + refills * refillRate, (double) refillRate * BUCKET_MINUTES);
+		nextRefill += refills * REFILL_INTERVAL;
+	}
+
+	/**
+	 * @return the clock the refill times are based on, in milliseconds
+	 */
+	long now() {
+		return System.nanoTime() / 1000000;
+	}
+}
@@ -0,0 +1,28 @@
+package com.keepa.api.backend.helper;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Access to virtual threads (Java 21+).
+ * This is the Java 8 variant, the multi-release jar provides the implementation for Java 21 and newer.
+ */
+public class VirtualThreads {
+
+	/**
+	 * @return true if virtual threads are supported by the running JVM
+	 */
+	public static boolean isAvailable() {
+		return false;
+	}
+
+	/**
+	 * Creates an executor that starts a new virtual thread for each task.
+	 *
+	 * @param namePrefix name prefix of the virtual threads, a counter is appended
+	 * @return the executor
+	 * @throws UnsupportedOperationException if virtual threads are not available, see {@link #isAvailable()}
+	 */
+	public static ExecutorService newExecutor(String namePrefix) {
+		throw new UnsupportedOperationException("Virtual threads require Java 21 or newer");
+	}
+}
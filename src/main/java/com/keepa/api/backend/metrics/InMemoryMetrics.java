@@ -0,0 +1,188 @@
+package com.keepa.api.backend.metrics;
+
+import com.keepa.api.backend.KeepaAPI;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free in-memory {@link KeepaMetrics}. Keeps latency histograms per endpoint and status, token balance and
+ * consumption rate, retries, queue depth, in-flight count and received bytes. Read it e.g. from a monitoring endpoint.
+ * Apart from the first request of an endpoint and status, recording does not allocate.
+ */
+public class InMemoryMetrics implements KeepaMetrics {
+	final private static KeepaAPI.ResponseStatus[] STATUSES = KeepaAPI.ResponseStatus.values();
+
+	/**
+	 * Per endpoint: histogram by status ordinal and retry counter.
+	 */
+	private static final class Endpoint {
+		final AtomicReferenceArray<LatencyHistogram> latencies = new AtomicReferenceArray<>(STATUSES.length);
+		final LongAdder retries = new LongAdder();
+	}
+
+	final private ConcurrentHashMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+	/**
+	 * Tokens consumed per second of the last minute, slot <code>second % 60</code>, tagged with the second it belongs to.
+	 */
+	final private AtomicLongArray consumed = new AtomicLongArray(60);
+	final private AtomicLongArray consumedSecond = new AtomicLongArray(60);
+	final private LongAdder tokensConsumed = new LongAdder();
+	private volatile int tokensLeft = 0;
+
+	private volatile int queueDepth = 0;
+	private volatile int inFlight = 0;
+	final private AtomicInteger maxQueueDepth = new AtomicInteger();
+
+	final private LongAdder compressedBytes = new LongAdder();
+	final private LongAdder uncompressedBytes = new LongAdder();
+
+	@Override
+	public void recordResponse(String path, KeepaAPI.ResponseStatus status, long latencyNanos, long compressedBytes, long uncompressedBytes) {
+		AtomicReferenceArray<LatencyHistogram> latencies = endpoint(path).latencies;
+		LatencyHistogram histogram = latencies.get(status.ordinal());
+		if (histogram == null) {
+			latencies.compareAndSet(status.ordinal(), null, new LatencyHistogram());
+			histogram = latencies.get(status.ordinal());
+		}
+		histogram.record(latencyNanos);
+		this.compressedBytes.add(compressedBytes);
+		this.uncompressedBytes.add(uncompressedBytes);
+	}
+
+	@Override
+	public void recordTokens(int tokensLeft, int tokensConsumed) {
+		this.tokensLeft = tokensLeft;
+		if (tokensConsumed <= 0)
+			return;
+
+		this.tokensConsumed.add(tokensConsumed);
+		long second = System.currentTimeMillis() / 1000;
+		int slot = (int) (second % 60);
+		long tag = consumedSecond.get(slot);
+		if (tag != second && consumedSecond.compareAndSet(slot, tag, second))
+			consumed.set(slot, 0);
+		consumed.addAndGet(slot, tokensConsumed);
+	}
+
+	@Override
+	public void recordRetry(String path, KeepaAPI.ResponseStatus cause) {
+		endpoint(path).retries.increment();
+	}
+
+	@Override
+	public void recordQueue(int queueDepth, int inFlight) {
+		this.queueDepth = queueDepth;
+		this.inFlight = inFlight;
+		maxQueueDepth.accumulateAndGet(queueDepth, Math::max);
+	}
+
+	/**
+	 * @return the endpoints requests were recorded for
+	 */
+	public Set<String> getPaths() {
+		return Collections.unmodifiableSet(endpoints.keySet());
+	}
+
+	/**
+	 * @param path   the endpoint
+	 * @param status the response status
+	 * @return latency histogram of the endpoint's responses with the given status, null if there were none
+	 */
+	public LatencyHistogram getLatency(String path, KeepaAPI.ResponseStatus status) {
+		Endpoint endpoint = endpoints.get(path);
+		return endpoint != null ? endpoint.latencies.get(status.ordinal()) : null;
+	}
+
+	/**
+	 * @param path the endpoint
+	 * @return number of responses of the endpoint, all statuses
+	 */
+	public long getRequestCount(String path) {
+		Endpoint endpoint = endpoints.get(path);
+		long count = 0;
+		if (endpoint != null) {
+			for (int i = 0; i < STATUSES.length; i++) {
+				LatencyHistogram histogram = endpoint.latencies.get(i);
+				if (histogram != null)
+					count += histogram.getCount();
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @param path the endpoint
+	 * @return number of scheduled retries of the endpoint's requests
+	 */
+	public long getRetries(String path) {
+		Endpoint endpoint = endpoints.get(path);
+		return endpoint != null ? endpoint.retries.sum() : 0;
+	}
+
+	/**
+	 * @return the token balance reported by the last response
+	 */
+	public int getTokensLeft() {
+		return tokensLeft;
+	}
+
+	/**
+	 * @return total number of consumed tokens
+	 */
+	public long getTokensConsumed() {
+		return tokensConsumed.sum();
+	}
+
+	/**
+	 * @return tokens consumed within the last minute
+	 */
+	public long getTokensConsumedPerMinute() {
+		long now = System.currentTimeMillis() / 1000;
+		long sum = 0;
+		for (int i = 0; i < 60; i++) {
+			if (now - consumedSecond.get(i) < 60)
+				sum += consumed.get(i);
+		}
+		return sum;
+	}
+
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+
+	public int getMaxQueueDepth() {
+		return maxQueueDepth.get();
+	}
+
+	public int getInFlight() {
+		return inFlight;
+	}
+
+	/**
+	 * @return total size of the received response bodies, as transferred
+	 */
+	public long getCompressedBytes() {
+		return compressedBytes.sum();
+	}
+
+	/**
+	 * @return total size of the received response bodies, decompressed
+	 */
+	public long getUncompressedBytes() {
+		return uncompressedBytes.sum();
+	}
+
+	private Endpoint endpoint(String path) {
+		if (path == null)
+			path = "";
+		Endpoint endpoint = endpoints.get(path);
+		return endpoint != null ? endpoint : endpoints.computeIfAbsent(path, p -> new Endpoint());
+	}
+}
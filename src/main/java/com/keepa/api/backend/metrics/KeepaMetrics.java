@@ -0,0 +1,54 @@
+package com.keepa.api.backend.metrics;
+
+import com.keepa.api.backend.KeepaAPI;
+
+/**
+ * Receives the measurements of a {@link KeepaAPI} instance, see {@link KeepaAPI#setMetrics(KeepaMetrics)}.
+ * <p>
+ * Implement it to forward the measurements to the metrics library of your choice, or use {@link InMemoryMetrics}.
+ * Responses are recorded from the worker threads after the caller has been handed the response, concurrently for concurrent requests.
+ * Exceptions thrown by them are ignored.
+ * All methods do nothing by default.
+ * </p>
+ */
+public interface KeepaMetrics {
+	/**
+	 * A request was answered, failed locally after it was sent, or was refused before it was sent
+	 * ({@link KeepaAPI.ResponseStatus#QUEUE_FULL}, {@link KeepaAPI.ResponseStatus#CIRCUIT_OPEN}).
+	 *
+	 * @param path              the endpoint, see {@link com.keepa.api.backend.structs.Request#path}
+	 * @param status            the status of the response
+	 * @param latencyNanos      time from queueing the request until its response was parsed, in nanoseconds
+	 * @param compressedBytes   size of the response body as received
+	 * @param uncompressedBytes size of the decompressed response body
+	 */
+	default void recordResponse(String path, KeepaAPI.ResponseStatus status, long latencyNanos, long compressedBytes, long uncompressedBytes) {
+	}
+
+	/**
+	 * A response reported the token balance.
+	 *
+	 * @param tokensLeft     the token balance after the request
+	 * @param tokensConsumed the tokens consumed by the request
+	 */
+	default void recordTokens(int tokensLeft, int tokensConsumed) {
+	}
+
+	/**
+	 * A retry of a request was scheduled.
+	 *
+	 * @param path  the endpoint
+	 * @param cause the status of the failed attempt
+	 */
+	default void recordRetry(String path, KeepaAPI.ResponseStatus cause) {
+	}
+
+	/**
+	 * The number of queued or in-flight requests changed.
+	 *
+	 * @param queueDepth number of requests waiting for admission
+	 * @param inFlight   number of requests being sent or processed
+	 */
+	default void recordQueue(int queueDepth, int inFlight) {
+	}
+}
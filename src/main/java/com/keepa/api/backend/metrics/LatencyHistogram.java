@@ -0,0 +1,94 @@
+package com.keepa.api.backend.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with log-linear buckets: every power of two is split into 8 linear buckets,
+ * so percentiles have a relative error below 12.5%, from 1 microsecond up to several days.
+ * Recording does not allocate.
+ */
+public class LatencyHistogram {
+	final private static int SUB_BUCKET_BITS = 3;
+	final private static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	final private static int MAX_EXPONENT = 40;
+
+	final private AtomicLongArray buckets = new AtomicLongArray(SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+	final private LongAdder count = new LongAdder();
+	final private LongAdder sum = new LongAdder();
+	final private LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * @param nanos the latency in nanoseconds
+	 */
+	public void record(long nanos) {
+		long micros = Math.max(0, nanos / 1000);
+		buckets.incrementAndGet(bucketOf(micros));
+		count.increment();
+		sum.add(micros);
+		max.accumulate(micros);
+	}
+
+	/**
+	 * @return number of recorded values
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * @return mean latency in milliseconds
+	 */
+	public double getMean() {
+		long n = count.sum();
+		return n == 0 ? 0 : sum.sum() / 1000.0 / n;
+	}
+
+	/**
+	 * @return highest recorded latency in milliseconds
+	 */
+	public double getMax() {
+		return max.get() / 1000.0;
+	}
+
+	/**
+	 * @param percentile the percentile, e.g. 99.9
+	 * @return the latency in milliseconds below which the given percentage of values fall (upper bound of the bucket)
+	 */
+	public double getPercentile(double percentile) {
+		long total = 0;
+		for (int i = 0; i < buckets.length(); i++)
+			total += buckets.get(i);
+		if (total == 0)
+			return 0;
+
+		long rank = (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100);
+		long seen = 0;
+		for (int i = 0; i < buckets.length(); i++) {
+			seen += buckets.get(i);
+			if (seen >= Math.max(1, rank))
+				return Math.min(upperBound(i), max.get()) / 1000.0;
+		}
+		return getMax();
+	}
+
+	private static int bucketOf(long micros) {
+		if (micros < SUB_BUCKETS)
+			return (int) micros;
+
+		int exponent = Math.min(63 - Long.numberOfLeadingZeros(micros), MAX_EXPONENT);
+		int shift = exponent - SUB_BUCKET_BITS;
+		int sub = (int) Math.min((micros >>> shift) - SUB_BUCKETS, SUB_BUCKETS - 1);
+		return SUB_BUCKETS + shift * SUB_BUCKETS + sub;
+	}
+
+	private static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+
+		int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+		int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+		return ((long) (SUB_BUCKETS + sub + 1) << shift) - 1;
+	}
+}
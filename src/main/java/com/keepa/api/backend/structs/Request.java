@@ -14,14 +14,115 @@ public class Request {
 //		REQUEST_PRODUCTS, BROWSING_DEALS, CATEGORY_LOOKUP, CATEGORY_SEARCH, PRODUCT_SEARCH, SELLER_REQUEST
 //	}
 
+	/**
+	 * Admission priority of a request. Queued requests of a higher priority are sent, and get tokens, first.
+	 */
+	public enum Priority {
+		/**
+		 * User facing requests that should overtake everything else.
+		 */
+		HIGH,
+		/**
+		 * Default priority.
+		 */
+		NORMAL,
+		/**
+		 * Background work, e.g. bulk refreshes, that only uses spare capacity.
+		 */
+		BULK
+	}
+
 	public HashMap<String, String> parameter;
+
+	/**
+	 * Request body as string. Takes precedence over {@link #postBody}.
+	 *
+	 * @deprecated set {@link #postBody} instead, which is serialized while the request is sent. Behavior change: {@link #getDealsRequest(DealRequest)}
+	 * and {@link #getTrackingBatchAddRequest(TrackingRequest...)} no longer fill this field but {@link #postBody}, so it is null for the
+	 * requests they create. Callers that read the JSON body from it must serialize postBody instead. Still sent if set.
+	 */
+	@Deprecated
 	public String postData;
+
+	/**
+	 * Request body that is serialized to JSON directly into the connection when the request is sent, instead of being
+	 * held as {@link #postData} string. Ignored if postData is set.
+	 */
+	public Object postBody;
+
 	public String path;
 
+	/**
+	 * Admission priority of this request, see {@link Priority}.
+	 */
+	public Priority priority = Priority.NORMAL;
+
+	/**
+	 * Overall time limit of a call in milliseconds, including the time spent queued, waiting for tokens and retrying.
+	 * When it passes, the call is aborted and fails with {@link com.keepa.api.backend.KeepaAPI.ResponseStatus#DEADLINE_EXCEEDED}.
+	 * 0 (default) for no limit.
+	 */
+	public int deadlineInMs = 0;
+
 	public Request() {
 		parameter = new HashMap<>(20);
 	}
 
+	/**
+	 * Rough estimate of the tokens this request will consume, used for client side pacing.
+	 * Product requests cost one token per ASIN or code, plus 6 tokens per ASIN for each page of 10 offers. Seller requests cost one token per seller.
+	 * Token status requests are free. All other requests are estimated at one token. The actual cost is reported in {@link Response#tokensConsumed}.
+	 *
+	 * @return estimated token cost, 0 for token status requests, otherwise at least 1
+	 */
+	public int getEstimatedTokenCost() {
+		if ("product".equals(path)) {
+			String items = parameter.containsKey("asin") ? parameter.get("asin") : parameter.get("code");
+			int count = countCsv(items);
+			int perItem = 1;
+			String offers = parameter.get("offers");
+			if (offers != null) {
+				try {
+					perItem += 6 * ((Integer.parseInt(offers) + 9) / 10);
+				} catch (NumberFormatException ignored) {
+				}
+			}
+			return Math.max(1, count * perItem);
+		} else if ("seller".equals(path)) {
+			return Math.max(1, countCsv(parameter.get("seller")));
+		} else if ("token".equals(path)) {
+			return 0;
+		}
+		return 1;
+	}
+
+	/**
+	 * @return true if this request has a body and is sent as POST request
+	 */
+	public boolean hasBody() {
+		return postData != null || postBody != null;
+	}
+
+	/**
+	 * @return the number of items requested at once: ASINs or codes of a product request, sellers of a seller request, 1 otherwise
+	 */
+	public int getBatchSize() {
+		if ("product".equals(path))
+			return Math.max(1, countCsv(parameter.containsKey("asin") ? parameter.get("asin") : parameter.get("code")));
+		else if ("seller".equals(path))
+			return Math.max(1, countCsv(parameter.get("seller")));
+		return 1;
+	}
+
+	private static int countCsv(String csv) {
+		if (csv == null || csv.isEmpty()) return 0;
+		int count = 1;
+		for (int i = 0; i < csv.length(); i++) {
+			if (csv.charAt(i) == ',') count++;
+		}
+		return count;
+	}
+
 	/**
 	 * By accessing our deals you can find products that recently changed and match your search criteria. A single request will return a maximum of 150 deals.
 	 *
@@ -31,7 +132,7 @@ public class Request {
 	public static Request getDealsRequest(DealRequest dealRequest) {
 		Request r = new Request();
 		r.path = "deal";
-		r.postData = gson.toJson(dealRequest);
+		r.postBody = dealRequest;
 		return r;
 	}
 
@@ -90,7 +191,7 @@ public class Request {
 		Request r = new Request();
 		r.path = "tracking";
 		r.parameter.put("type", "add");
-		r.postData = gson.toJson(trackingRequests);
+		r.postBody = trackingRequests;
 		return r;
 	}
 
@@ -292,6 +393,17 @@ public class Request {
         return r;
     }
 
+	/**
+	 * Retrieve the current token status of your API key. Consumes no tokens.
+	 *
+	 * @return A ready to send request.
+	 */
+	public static Request getTokenStatusRequest() {
+		Request r = new Request();
+		r.path = "token";
+		return r;
+	}
+
 	/**
 	 * Retrieve a Seller ID list of the most rated Amazon marketplace sellers.
 	 *
@@ -0,0 +1,121 @@
+package com.keepa.api.backend.structs;
+
+/**
+ * Local latency breakdown and transfer size of a request, see {@link Response#timings}.
+ * <p>
+ * Timestamps are {@link System#nanoTime()} values of this JVM, 0 if the phase was not reached or could not be observed
+ * by the transport. The body is downloaded, decompressed and parsed as one stream, so these phases overlap; the time
+ * spent in each of them is measured separately and available through the getters.
+ * </p>
+ */
+public class RequestTimings {
+	/**
+	 * The request was queued for admission.
+	 */
+	public long queued = 0;
+
+	/**
+	 * The request was admitted and handed to the transport.
+	 */
+	public long dequeued = 0;
+
+	/**
+	 * The connection to the API was established (including TLS) or a kept-alive connection was reused, 0 if the transport does not report it.
+	 */
+	public long connected = 0;
+
+	/**
+	 * The response headers were received.
+	 */
+	public long firstByte = 0;
+
+	/**
+	 * The compressed body was read completely.
+	 */
+	public long bodyRead = 0;
+
+	/**
+	 * The body was decompressed completely.
+	 */
+	public long decompressed = 0;
+
+	/**
+	 * The body was parsed.
+	 */
+	public long parsed = 0;
+
+	/**
+	 * Time spent waiting for body data from the network after the first byte, in nanoseconds.
+	 */
+	public long readNanos = 0;
+
+	/**
+	 * Time spent decompressing the body, in nanoseconds.
+	 */
+	public long decompressNanos = 0;
+
+	/**
+	 * Size of the response body as received.
+	 */
+	public long compressedBytes = 0;
+
+	/**
+	 * Size of the decompressed response body, as far as it was read by the parser.
+	 */
+	public long uncompressedBytes = 0;
+
+	/**
+	 * @return time spent waiting for admission (concurrency slot, tokens, bulkhead), in milliseconds
+	 */
+	public double getQueueTime() {
+		return millis(queued, dequeued);
+	}
+
+	/**
+	 * @return time from admission until the connection was established, in milliseconds. Close to 0 if a connection was reused.
+	 */
+	public double getConnectTime() {
+		return connected != 0 ? millis(dequeued, connected) : 0;
+	}
+
+	/**
+	 * @return time from admission (or connect) until the response headers arrived: upload, server processing and network latency, in milliseconds
+	 */
+	public double getWaitTime() {
+		return millis(connected != 0 ? connected : dequeued, firstByte);
+	}
+
+	/**
+	 * @return time spent receiving the body, in milliseconds
+	 */
+	public double getDownloadTime() {
+		return readNanos / 1e6;
+	}
+
+	/**
+	 * @return time spent decompressing the body, in milliseconds
+	 */
+	public double getDecompressTime() {
+		return decompressNanos / 1e6;
+	}
+
+	/**
+	 * @return time spent parsing the body, in milliseconds
+	 */
+	public double getParseTime() {
+		if (firstByte == 0 || parsed == 0)
+			return 0;
+		return Math.max(0, (parsed - firstByte - readNanos - decompressNanos) / 1e6);
+	}
+
+	/**
+	 * @return time from queueing until the response was parsed, in milliseconds
+	 */
+	public double getTotalTime() {
+		return millis(queued, parsed);
+	}
+
+	private static double millis(long from, long to) {
+		return from != 0 && to != 0 ? (to - from) / 1e6 : 0;
+	}
+}
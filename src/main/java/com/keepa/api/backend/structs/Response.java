@@ -43,6 +43,13 @@ public class Response {
 	 */
 	public int processingTimeInMs = 0;
 
+	/**
+	 * Local latency breakdown of the request: queueing, connect, wait for the response, download, decompression and parsing.
+	 * Responses of requests that were queued but not sent, e.g. refused by an open circuit when leaving the queue, carry the timings up to that point.
+	 * Null if the request was refused before it was queued, e.g. because the circuit was already open, and for cancelled calls and exceeded deadlines.
+	 */
+	public RequestTimings timings = null;
+
 	/**
 	 * Token flow reduction
 	 */
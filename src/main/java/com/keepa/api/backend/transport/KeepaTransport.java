@@ -0,0 +1,56 @@
+package com.keepa.api.backend.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * HTTP transport used by {@link com.keepa.api.backend.KeepaAPI} to talk to the Keepa API.
+ * Implementations must be thread safe, as a single transport is shared by all requests of a KeepaAPI instance.
+ *
+ * @see Transports
+ */
+public interface KeepaTransport extends Closeable {
+
+	/**
+	 * Executes the request and blocks until the response status and headers are available.
+	 * The caller reads the body from the returned {@link TransportResponse} and closes it afterwards, which releases the connection back to the pool.
+	 *
+	 * @param request the request to execute
+	 * @return the response, never null
+	 * @throws IOException on any network error
+	 */
+	TransportResponse execute(TransportRequest request) throws IOException;
+
+	/**
+	 * @return true if {@link #executeAsync(TransportRequest)} does not block the calling thread while waiting for the network.
+	 * KeepaAPI then only uses its worker threads to decompress and parse responses.
+	 */
+	default boolean isNonBlocking() {
+		return false;
+	}
+
+	/**
+	 * Executes the request without blocking, if supported (see {@link #isNonBlocking()}).
+	 * The default implementation runs {@link #execute(TransportRequest)} on the calling thread.
+	 *
+	 * @param request the request to execute
+	 * @return future of the response, completed exceptionally with an {@link IOException} on any network error
+	 */
+	default CompletableFuture<TransportResponse> executeAsync(TransportRequest request) {
+		CompletableFuture<TransportResponse> future = new CompletableFuture<>();
+		try {
+			future.complete(execute(request));
+		} catch (IOException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * Releases pooled connections and other resources held by this transport.
+	 */
+	@Override
+	default void close() {
+	}
+}
@@ -0,0 +1,136 @@
+package com.keepa.api.backend.transport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * A single HTTP request as handed to a {@link KeepaTransport}.
+ */
+public class TransportRequest {
+	/**
+	 * The full request URL, including the query string.
+	 */
+	public final String url;
+
+	/**
+	 * Writes a request body directly into the connection, see {@link #bodyWriter}.
+	 */
+	public interface BodyWriter {
+		/**
+		 * Writes the complete body. May be called again if the request is retried. Must not close the stream.
+		 */
+		void writeTo(OutputStream out) throws IOException;
+	}
+
+	/**
+	 * The request body or null for a GET request or a streamed body.
+	 */
+	public final byte[] body;
+
+	/**
+	 * Streamed request body of unknown length, to be sent with chunked transfer encoding, or null.
+	 * Transports must support either this or {@link #body} being set.
+	 */
+	public final BodyWriter bodyWriter;
+
+	/**
+	 * Request headers, in insertion order.
+	 */
+	public final Map<String, String> headers = new LinkedHashMap<>(8);
+
+	/**
+	 * the timeout value, in milliseconds, to be used when opening a connection to the API
+	 */
+	public final int connectTimeout;
+
+	/**
+	 * the read timeout value, in milliseconds, for receiving an API response
+	 */
+	public final int readTimeout;
+
+	private Runnable onAbort;
+	private boolean aborted = false;
+	private volatile IntConsumer onFirstByte;
+
+	public TransportRequest(String url, byte[] body, int connectTimeout, int readTimeout) {
+		this.url = url;
+		this.body = body;
+		this.bodyWriter = null;
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+	}
+
+	/**
+	 * POST request with a streamed body.
+	 */
+	public TransportRequest(String url, BodyWriter bodyWriter, int connectTimeout, int readTimeout) {
+		this.url = url;
+		this.body = null;
+		this.bodyWriter = bodyWriter;
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+	}
+
+	/**
+	 * @return "POST" if this request has a body, "GET" otherwise
+	 */
+	public String getMethod() {
+		return body != null || bodyWriter != null ? "POST" : "GET";
+	}
+
+	/**
+	 * Sets the action that interrupts the network call of this request, e.g. closing the connection.
+	 * Replaces the previously set action. Runs immediately if the request was already aborted.
+	 */
+	public void onAbort(Runnable action) {
+		synchronized (this) {
+			if (!aborted) {
+				onAbort = action;
+				return;
+			}
+		}
+		action.run();
+	}
+
+	/**
+	 * Aborts the request. The transport fails it with an IOException as soon as possible, also when it is still waiting for a connection.
+	 */
+	public void abort() {
+		Runnable action;
+		synchronized (this) {
+			if (aborted)
+				return;
+			aborted = true;
+			action = onAbort;
+			onAbort = null;
+		}
+		if (action != null)
+			action.run();
+	}
+
+	public synchronized boolean isAborted() {
+		return aborted;
+	}
+
+	/**
+	 * Sets the action to run with the status code once the response headers arrived, see {@link #firstByte(int)}.
+	 */
+	public void onFirstByte(IntConsumer action) {
+		this.onFirstByte = action;
+	}
+
+	/**
+	 * Called by transports that receive the whole body before completing {@link KeepaTransport#executeAsync(TransportRequest)},
+	 * as soon as the response headers arrived, so the caller learns about the first byte before the body is read.
+	 *
+	 * @param statusCode the HTTP status code
+	 */
+	public void firstByte(int statusCode) {
+		IntConsumer action = onFirstByte;
+		if (action != null)
+			action.accept(statusCode);
+	}
+}
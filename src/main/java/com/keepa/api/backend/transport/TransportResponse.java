@@ -0,0 +1,97 @@
+package com.keepa.api.backend.transport;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Status and body of a response received by a {@link KeepaTransport}.
+ * Must be closed after the body has been consumed.
+ */
+public class TransportResponse implements Closeable {
+	/**
+	 * HTTP status code of the response.
+	 */
+	public final int statusCode;
+
+	/**
+	 * The raw (still compressed) response body. May be null if the response has no body.
+	 * Closing it has the same effect as closing this response.
+	 */
+	public final InputStream body;
+
+	/**
+	 * {@link System#nanoTime()} when the connection was established or a kept-alive connection was taken from the pool, 0 if the transport does not report it.
+	 */
+	public long connectedAt = 0;
+
+	/**
+	 * {@link System#nanoTime()} when the response headers were received. Defaults to the creation of this response.
+	 */
+	public long firstByteAt = System.nanoTime();
+
+	/**
+	 * {@link System#nanoTime()} when the body was received completely, set by transports that buffer the body. 0 if the body is streamed.
+	 */
+	public long bodyReadAt = 0;
+
+	final private ReleasingInputStream releasing;
+	final private Runnable onClose;
+
+	public TransportResponse(int statusCode, InputStream body) {
+		this(statusCode, body, null);
+	}
+
+	/**
+	 * @param statusCode HTTP status code
+	 * @param body       raw response body, may be null
+	 * @param onClose    invoked once when the response is closed, e.g. to return a connection permit. May be null.
+	 */
+	public TransportResponse(int statusCode, InputStream body, Runnable onClose) {
+		this.statusCode = statusCode;
+		this.onClose = onClose;
+		this.releasing = body != null ? new ReleasingInputStream(body) : null;
+		this.body = releasing;
+		if (body == null && onClose != null)
+			onClose.run();
+	}
+
+	@Override
+	public void close() {
+		if (releasing != null)
+			releasing.close();
+	}
+
+	/**
+	 * Drains what is left of the body before closing it, so keep-alive connections can be reused for the next request.
+	 * Closing is best effort and idempotent.
+	 */
+	private class ReleasingInputStream extends FilterInputStream {
+		private boolean closed = false;
+
+		ReleasingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public void close() {
+			if (closed) return;
+			closed = true;
+			try {
+				byte[] skip = new byte[4096];
+				while (in.read(skip) != -1) ;
+			} catch (IOException ignored) {
+				// connection will not be reused
+			}
+
+			try {
+				in.close();
+			} catch (IOException ignored) {
+			} finally {
+				if (onClose != null)
+					onClose.run();
+			}
+		}
+	}
+}
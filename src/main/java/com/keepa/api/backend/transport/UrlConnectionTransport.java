@@ -0,0 +1,98 @@
+package com.keepa.api.backend.transport;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * {@link KeepaTransport} based on {@link HttpsURLConnection}, available on every Java version.
+ * <p>
+ * Connections are kept alive and reused through the JDK's keep-alive cache, and all connections share one
+ * {@link SSLSocketFactory}, so TLS sessions are resumed instead of doing a full handshake per connection.
+ * The number of concurrently open connections can be bounded; further requests wait for a free connection.
+ * Note that the JDK only keeps up to <code>http.maxConnections</code> (default 5) idle connections per host.
+ * Aborting a request disconnects its connection, which is then not reused.
+ * </p>
+ */
+public class UrlConnectionTransport implements KeepaTransport {
+	final private SSLSocketFactory socketFactory;
+	final private Semaphore connections;
+
+	/**
+	 * Unbounded transport using the JVM default SSL socket factory.
+	 */
+	public UrlConnectionTransport() {
+		this(0, HttpsURLConnection.getDefaultSSLSocketFactory());
+	}
+
+	/**
+	 * @param maxConnections maximum number of concurrently open connections, 0 for no limit
+	 * @param socketFactory  factory shared by all connections of this transport
+	 */
+	public UrlConnectionTransport(int maxConnections, SSLSocketFactory socketFactory) {
+		this.connections = maxConnections > 0 ? new Semaphore(maxConnections, true) : null;
+		this.socketFactory = socketFactory;
+	}
+
+	@Override
+	public TransportResponse execute(TransportRequest request) throws IOException {
+		if (connections != null) {
+			try {
+				connections.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for a free connection", e);
+			}
+		}
+
+		boolean handedOver = false;
+		try {
+			if (request.isAborted())
+				throw new IOException("Request aborted");
+
+			HttpsURLConnection con = (HttpsURLConnection) new URL(request.url).openConnection();
+			request.onAbort(con::disconnect); // closes the socket, also while blocked in connect or read
+			if (socketFactory != null)
+				con.setSSLSocketFactory(socketFactory);
+			con.setUseCaches(false);
+			for (Map.Entry<String, String> header : request.headers.entrySet())
+				con.setRequestProperty(header.getKey(), header.getValue());
+			con.setConnectTimeout(request.connectTimeout);
+			con.setReadTimeout(request.readTimeout);
+			con.setRequestMethod(request.getMethod());
+			if (request.body != null) {
+				con.setDoOutput(true);
+				con.setFixedLengthStreamingMode(request.body.length); // no internal copy of the body
+			} else if (request.bodyWriter != null) {
+				con.setDoOutput(true);
+				con.setChunkedStreamingMode(0);
+			}
+
+			con.connect();
+			long connectedAt = System.nanoTime();
+			if (request.body != null || request.bodyWriter != null) {
+				try (OutputStream os = con.getOutputStream()) {
+					if (request.body != null)
+						os.write(request.body);
+					else
+						request.bodyWriter.writeTo(os);
+				}
+			}
+
+			int responseCode = con.getResponseCode();
+			InputStream body = responseCode == 200 ? con.getInputStream() : con.getErrorStream();
+			TransportResponse response = new TransportResponse(responseCode, body, connections != null ? connections::release : null);
+			response.connectedAt = connectedAt;
+			handedOver = true;
+			return response;
+		} finally {
+			if (!handedOver && connections != null)
+				connections.release();
+		}
+	}
+}
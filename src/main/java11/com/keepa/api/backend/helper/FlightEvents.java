@@ -0,0 +1,240 @@
+package com.keepa.api.backend.helper;
+
+import com.keepa.api.backend.KeepaAPI;
+import com.keepa.api.backend.structs.Request;
+import com.keepa.api.backend.structs.RequestTimings;
+import com.keepa.api.backend.structs.Response;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder events of the request lifecycle (Java 11+): queue wait, request (with the duration of each phase) and retry.
+ * The events are in the category "Keepa API" and are recorded like any other JFR event, e.g. with <code>-XX:StartFlightRecording</code>.
+ * This is the Java 11 variant of the multi-release jar. Nothing is allocated while the events are disabled.
+ * On runtimes without the <code>jdk.jfr</code> module, e.g. jlink images, nothing is recorded.
+ */
+public class FlightEvents {
+	/**
+	 * True if the <code>jdk.jfr</code> module is present. The event classes are only loaded, with {@link Recorder}, if it is.
+	 */
+	final private static boolean AVAILABLE = isJfrPresent();
+
+	public static Object queued(Request request) {
+		return AVAILABLE ? Recorder.queued(request) : null;
+	}
+
+	public static void dequeued(Object queueEvent) {
+		if (queueEvent != null)
+			Recorder.dequeued(queueEvent);
+	}
+
+	public static Object sending(Request request) {
+		return AVAILABLE ? Recorder.sending(request) : null;
+	}
+
+	public static void completed(Object requestEvent, Request request, Response response) {
+		if (requestEvent != null)
+			Recorder.completed(requestEvent, request, response);
+	}
+
+	public static void retry(Request request, KeepaAPI.ResponseStatus cause, long delay) {
+		if (AVAILABLE)
+			Recorder.retry(request, cause, delay);
+	}
+
+	private static boolean isJfrPresent() {
+		try {
+			Class.forName("jdk.jfr.Event", false, FlightEvents.class.getClassLoader());
+			return true;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+
+	/**
+	 * The events, only loaded if JFR is available.
+	 */
+	private static final class Recorder {
+		@Name("com.keepa.api.QueueWait")
+		@Label("Keepa Queue Wait")
+		@Category("Keepa API")
+		@StackTrace(false)
+		static class QueueEvent extends Event {
+			@Label("Path")
+			String path;
+
+			@Label("Priority")
+			String priority;
+
+			@Label("Batch Size")
+			int batchSize;
+
+			@Label("Token Cost")
+			int tokenCost;
+		}
+
+		@Name("com.keepa.api.Request")
+		@Label("Keepa Request")
+		@Category("Keepa API")
+		@StackTrace(false)
+		static class RequestEvent extends Event {
+			@Label("Path")
+			String path;
+
+			@Label("Batch Size")
+			int batchSize;
+
+			@Label("Token Cost")
+			int tokenCost;
+
+			@Label("Status")
+			String status;
+
+			@Label("HTTP Status Code")
+			int statusCode;
+
+			@Label("Tokens Consumed")
+			int tokensConsumed;
+
+			@Label("Tokens Left")
+			int tokensLeft;
+
+			@Label("Compressed Bytes")
+			@DataAmount
+			long compressedBytes;
+
+			@Label("Uncompressed Bytes")
+			@DataAmount
+			long uncompressedBytes;
+
+			@Label("Connect")
+			@Timespan
+			long connect;
+
+			@Label("Wait For Response")
+			@Timespan
+			long waitForResponse;
+
+			@Label("Server Processing")
+			@Timespan
+			long serverProcessing;
+
+			@Label("Download")
+			@Timespan
+			long download;
+
+			@Label("Decompress")
+			@Timespan
+			long decompress;
+
+			@Label("Parse")
+			@Timespan
+			long parse;
+		}
+
+		@Name("com.keepa.api.Retry")
+		@Label("Keepa Retry")
+		@Category("Keepa API")
+		@StackTrace(false)
+		static class RetryEvent extends Event {
+			@Label("Path")
+			String path;
+
+			@Label("Cause")
+			String cause;
+
+			@Label("Delay")
+			@Timespan(Timespan.MILLISECONDS)
+			long delay;
+		}
+
+		/**
+		 * Instances only used to check whether the event types are enabled.
+		 */
+		final private static QueueEvent QUEUE = new QueueEvent();
+		final private static RequestEvent REQUEST = new RequestEvent();
+		final private static RetryEvent RETRY = new RetryEvent();
+
+		static Object queued(Request request) {
+			if (!QUEUE.isEnabled())
+				return null;
+
+			QueueEvent event = new QueueEvent();
+			event.begin();
+			event.path = request.path;
+			event.priority = String.valueOf(request.priority);
+			event.batchSize = request.getBatchSize();
+			event.tokenCost = request.getEstimatedTokenCost();
+			return event;
+		}
+
+		static void dequeued(Object queueEvent) {
+			if (queueEvent == null)
+				return;
+
+			QueueEvent event = (QueueEvent) queueEvent;
+			event.end();
+			if (event.shouldCommit())
+				event.commit();
+		}
+
+		static Object sending(Request request) {
+			if (!REQUEST.isEnabled())
+				return null;
+
+			RequestEvent event = new RequestEvent();
+			event.begin();
+			event.path = request.path;
+			event.batchSize = request.getBatchSize();
+			event.tokenCost = request.getEstimatedTokenCost();
+			return event;
+		}
+
+		static void completed(Object requestEvent, Request request, Response response) {
+			if (requestEvent == null)
+				return;
+
+			RequestEvent event = (RequestEvent) requestEvent;
+			event.end();
+			if (!event.shouldCommit())
+				return;
+
+			event.status = String.valueOf(response.status);
+			event.statusCode = response.statusCode;
+			event.tokensConsumed = response.tokensConsumed;
+			event.tokensLeft = response.tokensLeft;
+			event.serverProcessing = response.processingTimeInMs * 1000000L;
+			RequestTimings timings = response.timings;
+			if (timings != null) {
+				event.compressedBytes = timings.compressedBytes;
+				event.uncompressedBytes = timings.uncompressedBytes;
+				event.connect = nanos(timings.getConnectTime());
+				event.waitForResponse = nanos(timings.getWaitTime());
+				event.download = nanos(timings.getDownloadTime());
+				event.decompress = nanos(timings.getDecompressTime());
+				event.parse = nanos(timings.getParseTime());
+			}
+			event.commit();
+		}
+
+		static void retry(Request request, KeepaAPI.ResponseStatus cause, long delay) {
+			if (!RETRY.isEnabled())
+				return;
+
+			RetryEvent event = new RetryEvent();
+			event.path = request.path;
+			event.cause = String.valueOf(cause);
+			event.delay = delay;
+			event.commit();
+		}
+
+		private static long nanos(double millis) {
+			return (long) (millis * 1e6);
+		}
+	}
+}
@@ -0,0 +1,462 @@
+package com.keepa.api.backend.transport;
+
+import com.keepa.api.backend.helper.BasicNameFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link KeepaTransport} based on the Java 11 {@link HttpClient}.
+ * Requests are multiplexed as HTTP/2 streams over a small number of pooled connections, and the client's SSL context resumes TLS sessions.
+ * The number of concurrent streams is bounded, further requests wait for a free stream.
+ * {@link #executeAsync(TransportRequest)} is fully non-blocking, including the wait for a free stream.
+ * Aborting a request cancels its exchange, which resets the HTTP/2 stream on Java 16 and later.
+ * Streamed request bodies ({@link TransportRequest#bodyWriter}) are written on the client's executor while they are sent, with a bounded buffer.
+ * <p>
+ * The HttpClient's connect timeout is fixed when the client is built. The per request timeout therefore covers
+ * {@link TransportRequest#connectTimeout} plus {@link TransportRequest#readTimeout}, so the caller's connect timeout is part of the budget of each exchange.
+ * </p>
+ */
+class Http2Transport implements KeepaTransport {
+	/**
+	 * Headers managed by the HttpClient itself, setting them is not allowed.
+	 */
+	final private static Set<String> RESTRICTED_HEADERS = Set.of("connection", "content-length", "expect", "host", "upgrade");
+
+	final private HttpClient client;
+	final private ExecutorService executor;
+	final private Semaphore streams;
+
+	/**
+	 * Asynchronous requests waiting for a free stream.
+	 */
+	final private Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Requests accepted and not finished yet, including those waiting for a stream. The client is shut down when the last one
+	 * finishes after {@link #close()}.
+	 */
+	final private AtomicInteger exchanges = new AtomicInteger();
+	private volatile boolean closed = false;
+	final private AtomicBoolean terminated = new AtomicBoolean(false);
+
+	Http2Transport(int maxConcurrent, int connectTimeout) {
+		this.executor = Executors.newCachedThreadPool(new BasicNameFactory("KeepaAPI-Http2-%d"));
+		this.client = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_2)
+				.connectTimeout(Duration.ofMillis(connectTimeout))
+				.executor(executor)
+				.build();
+		this.streams = maxConcurrent > 0 ? new Semaphore(maxConcurrent, true) : null;
+	}
+
+	/**
+	 * @param bodies receives the streamed body of each attempt to send the request, to be cancelled together with the exchange
+	 *               because {@link TransportRequest#onAbort(Runnable)} keeps only one action
+	 */
+	private HttpRequest toHttpRequest(TransportRequest request, Queue<StreamedBody> bodies) throws IOException {
+		HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(request.url))
+				.timeout(Duration.ofMillis((long) request.connectTimeout + request.readTimeout));
+		for (Map.Entry<String, String> header : request.headers.entrySet()) {
+			if (!RESTRICTED_HEADERS.contains(header.getKey().toLowerCase()))
+				builder.header(header.getKey(), header.getValue());
+		}
+
+		if (request.body != null)
+			builder.POST(HttpRequest.BodyPublishers.ofByteArray(request.body));
+		else if (request.bodyWriter != null) {
+			// the body is written on the client's executor while the HttpClient sends it
+			builder.POST(HttpRequest.BodyPublishers.ofInputStream(() -> {
+				StreamedBody body = new StreamedBody((long) request.connectTimeout + request.readTimeout);
+				bodies.add(body);
+				if (request.isAborted()) // the abort action may have run before the body was added
+					body.cancel();
+				executor.execute(() -> body.writeFrom(request.bodyWriter));
+				return body.input();
+			}));
+		} else
+			builder.GET();
+		return builder.build();
+	}
+
+	@Override
+	public TransportResponse execute(TransportRequest request) throws IOException {
+		if (!startExchange())
+			throw new IOException("Transport closed");
+		try {
+			if (streams != null)
+				streams.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			finishExchange();
+			throw new IOException("Interrupted while waiting for a free stream", e);
+		}
+
+		boolean handedOver = false;
+		try {
+			if (request.isAborted())
+				throw new IOException("Request aborted");
+
+			Queue<StreamedBody> bodies = new ConcurrentLinkedQueue<>();
+			CompletableFuture<HttpResponse<InputStream>> pending = client.sendAsync(toHttpRequest(request, bodies), HttpResponse.BodyHandlers.ofInputStream());
+			request.onAbort(() -> {
+				pending.cancel(true);
+				cancel(bodies);
+			});
+			HttpResponse<InputStream> response = pending.get();
+			InputStream body = response.body();
+			request.onAbort(() -> {
+				cancel(bodies);
+				try {
+					body.close();
+				} catch (IOException ignored) {
+				}
+			});
+
+			TransportResponse result = new TransportResponse(response.statusCode(), body, () -> {
+				if (streams != null)
+					release();
+				finishExchange();
+			});
+			handedOver = true;
+			return result;
+		} catch (CancellationException e) {
+			throw new IOException("Request aborted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			if (e.getCause() instanceof UncheckedIOException)
+				throw ((UncheckedIOException) e.getCause()).getCause();
+			throw new IOException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the response", e);
+		} finally {
+			if (!handedOver) {
+				if (streams != null)
+					release();
+				finishExchange();
+			}
+		}
+	}
+
+	@Override
+	public boolean isNonBlocking() {
+		return true;
+	}
+
+	/**
+	 * The body is received completely by the HttpClient's selector before the future completes,
+	 * so neither the network wait nor the wait for a free stream holds a thread. The arrival of the response headers is reported
+	 * earlier, through {@link TransportRequest#firstByte(int)}.
+	 */
+	@Override
+	public CompletableFuture<TransportResponse> executeAsync(TransportRequest request) {
+		CompletableFuture<TransportResponse> future = new CompletableFuture<>();
+		if (!startExchange()) {
+			future.completeExceptionally(new IOException("Transport closed"));
+			return future;
+		}
+
+		Queue<StreamedBody> bodies = new ConcurrentLinkedQueue<>();
+		HttpRequest httpRequest;
+		try {
+			httpRequest = toHttpRequest(request, bodies);
+		} catch (IOException e) {
+			finishExchange();
+			future.completeExceptionally(e);
+			return future;
+		} catch (RuntimeException e) {
+			finishExchange();
+			future.completeExceptionally(new IOException(e));
+			return future;
+		}
+
+		request.onAbort(() -> future.completeExceptionally(new IOException("Request aborted")));
+		Runnable start = () -> {
+			if (future.isDone()) { // aborted while waiting for a stream
+				if (streams != null)
+					release();
+				finishExchange();
+				return;
+			}
+
+			long[] firstByteAt = new long[1];
+			CompletableFuture<HttpResponse<byte[]>> pending = client.sendAsync(httpRequest, info -> {
+				firstByteAt[0] = System.nanoTime();
+				request.firstByte(info.statusCode());
+				return HttpResponse.BodySubscribers.ofByteArray();
+			});
+			request.onAbort(() -> {
+				future.completeExceptionally(new IOException("Request aborted"));
+				pending.cancel(true);
+				cancel(bodies);
+			});
+			pending.whenComplete((response, t) -> {
+				if (streams != null)
+					release();
+				finishExchange();
+				if (response != null) {
+					TransportResponse result = new TransportResponse(response.statusCode(), new ByteArrayInputStream(response.body()));
+					result.firstByteAt = firstByteAt[0];
+					result.bodyReadAt = System.nanoTime();
+					future.complete(result);
+				} else {
+					Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+					// failures of the streamed request body are wrapped by the HttpClient
+					future.completeExceptionally(cause instanceof UncheckedIOException ? cause.getCause() : cause);
+				}
+			});
+		};
+
+		if (streams == null || streams.tryAcquire())
+			start.run();
+		else {
+			waiting.add(start);
+			// a stream may have been released between the failed tryAcquire and the enqueue
+			if (streams.tryAcquire())
+				startWaiting();
+		}
+		return future;
+	}
+
+	private static void cancel(Queue<StreamedBody> bodies) {
+		for (StreamedBody body : bodies)
+			body.cancel();
+	}
+
+	/**
+	 * Hands a streamed request body from the thread running the {@link TransportRequest.BodyWriter} to the HttpClient
+	 * in fixed size chunks. At most {@link #MAX_CHUNKS} chunks are buffered, so memory use does not depend on the body size.
+	 */
+	private static class StreamedBody extends OutputStream {
+		final private static int CHUNK_SIZE = 16384;
+		final private static int MAX_CHUNKS = 4;
+		final private static byte[] END = new byte[0];
+
+		final private BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(MAX_CHUNKS + 1);
+		final private long timeout;
+		private volatile boolean closed = false;
+		private volatile IOException failure;
+		private byte[] current;
+		private int position = 0;
+
+		/**
+		 * @param timeout milliseconds the writer waits for the HttpClient to take a chunk before giving up
+		 */
+		StreamedBody(long timeout) {
+			this.timeout = timeout;
+		}
+
+		/**
+		 * Writes the body, to be run on its own thread.
+		 */
+		void writeFrom(TransportRequest.BodyWriter writer) {
+			try {
+				writer.writeTo(this);
+				if (position > 0)
+					put(Arrays.copyOf(current, position));
+				put(END);
+			} catch (IOException | RuntimeException e) {
+				if (failure == null) // not aborted
+					failure = e instanceof IOException ? (IOException) e : new IOException(e);
+				chunks.clear();
+				chunks.offer(END);
+			}
+		}
+
+		/**
+		 * Stops the writer, e.g. because the request was aborted.
+		 */
+		void cancel() {
+			if (closed)
+				return;
+			closed = true;
+			if (failure == null)
+				failure = new IOException("Request aborted");
+			chunks.clear();
+			chunks.offer(END); // wakes up a blocked reader, which then fails instead of sending a truncated body
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (current == null)
+				current = new byte[CHUNK_SIZE];
+			current[position++] = (byte) b;
+			if (position == CHUNK_SIZE)
+				nextChunk();
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (current == null)
+					current = new byte[CHUNK_SIZE];
+				int n = Math.min(len, CHUNK_SIZE - position);
+				System.arraycopy(b, off, current, position, n);
+				position += n;
+				off += n;
+				len -= n;
+				if (position == CHUNK_SIZE)
+					nextChunk();
+			}
+		}
+
+		private void nextChunk() throws IOException {
+			put(current);
+			current = null;
+			position = 0;
+		}
+
+		private void put(byte[] chunk) throws IOException {
+			try {
+				if (closed || !chunks.offer(chunk, timeout, TimeUnit.MILLISECONDS))
+					throw new IOException("Request body not consumed");
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while streaming the request body");
+			}
+		}
+
+		/**
+		 * @return the stream the HttpClient reads the body from
+		 */
+		InputStream input() {
+			return new InputStream() {
+				private byte[] chunk = new byte[0];
+				private int offset = 0;
+
+				@Override
+				public int read() throws IOException {
+					byte[] one = new byte[1];
+					return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					if (len == 0)
+						return 0;
+					while (offset == chunk.length) {
+						if (chunk == END)
+							return -1;
+						try {
+							chunk = chunks.take();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new InterruptedIOException("Interrupted while streaming the request body");
+						}
+						offset = 0;
+						if (chunk == END && failure != null)
+							throw failure;
+					}
+					int n = Math.min(len, chunk.length - offset);
+					System.arraycopy(chunk, offset, b, off, n);
+					offset += n;
+					return n;
+				}
+
+				@Override
+				public void close() {
+					cancel();
+				}
+			};
+		}
+	}
+
+	/**
+	 * Refuses new requests and returns immediately. Requests already accepted, including those waiting for a stream, are completed.
+	 * Once the last of them has finished, the client is closed on Java 21 and later and its executor is shut down.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		if (exchanges.get() == 0)
+			terminate();
+	}
+
+	/**
+	 * @return false if the transport is closed and the request must be refused
+	 */
+	private boolean startExchange() {
+		exchanges.incrementAndGet();
+		if (!closed)
+			return true;
+		finishExchange();
+		return false;
+	}
+
+	private void finishExchange() {
+		if (exchanges.decrementAndGet() == 0 && closed)
+			terminate();
+	}
+
+	/**
+	 * Shuts the client down once no request is in flight anymore. Runs on the client's executor,
+	 * as the exchange that just finished may still be completing on the caller's thread.
+	 */
+	private void terminate() {
+		if (!terminated.compareAndSet(false, true))
+			return;
+		try {
+			executor.execute(() -> {
+				if (client instanceof AutoCloseable) { // HttpClient is AutoCloseable since Java 21
+					try {
+						((AutoCloseable) client).close();
+					} catch (Exception ignored) {
+					}
+				}
+				executor.shutdown();
+			});
+		} catch (RejectedExecutionException e) {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Hands a stream permit to the next waiting asynchronous request or returns it to the semaphore.
+	 */
+	private void release() {
+		if (!waiting.isEmpty())
+			startWaiting();
+		else
+			streams.release();
+	}
+
+	/**
+	 * Starts the next waiting request with an already acquired permit.
+	 */
+	private void startWaiting() {
+		Runnable next = waiting.poll();
+		if (next != null)
+			next.run();
+		else
+			streams.release();
+	}
+}
@@ -0,0 +1,52 @@
+package com.keepa.api.backend.transport;
+
+/**
+ * Factory for the {@link KeepaTransport} implementations shipped with this framework.
+ * <p>
+ * This is the Java 11 variant of the multi-release jar, {@link #pooled(int)} returns an HTTP/2 client.
+ * </p>
+ */
+public final class Transports {
+
+	private Transports() {
+	}
+
+	/**
+	 * @return the transport used by {@link com.keepa.api.backend.KeepaAPI} unless configured otherwise
+	 */
+	public static KeepaTransport defaultTransport() {
+		return new UrlConnectionTransport();
+	}
+
+	/**
+	 * @return true if {@link #pooled(int)} returns an HTTP/2 transport on this Java version
+	 */
+	public static boolean isHttp2Available() {
+		return true;
+	}
+
+	/**
+	 * Creates a pooled transport. On Java 11+ this is an HTTP/2 client that multiplexes all requests over few connections
+	 * and resumes TLS sessions. On Java 8 it falls back to a keep-alive {@link UrlConnectionTransport} with a shared TLS session cache.
+	 *
+	 * @param maxConcurrent maximum number of concurrent requests (HTTP/2 streams or HTTP/1.1 connections)
+	 * @return a new transport, with a connect timeout of 30 seconds for the HTTP/2 client
+	 */
+	public static KeepaTransport pooled(int maxConcurrent) {
+		return pooled(maxConcurrent, 30000);
+	}
+
+	/**
+	 * Creates a pooled transport, see {@link #pooled(int)}.
+	 * The HTTP/2 client's connect timeout is fixed when it is built, the connect timeout passed to
+	 * {@link com.keepa.api.backend.KeepaAPI#sendRequest} then only extends the overall timeout of each request.
+	 * The HTTP/1.1 fallback uses the connect timeout of each request instead.
+	 *
+	 * @param maxConcurrent  maximum number of concurrent requests (HTTP/2 streams or HTTP/1.1 connections)
+	 * @param connectTimeout connect timeout of the HTTP/2 client, in milliseconds
+	 * @return a new transport
+	 */
+	public static KeepaTransport pooled(int maxConcurrent, int connectTimeout) {
+		return new Http2Transport(maxConcurrent, connectTimeout);
+	}
+}
@@ -0,0 +1,28 @@
+package com.keepa.api.backend.helper;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Access to virtual threads (Java 21+).
+ * This is the Java 21 variant of the multi-release jar.
+ */
+public class VirtualThreads {
+
+	/**
+	 * @return true if virtual threads are supported by the running JVM
+	 */
+	public static boolean isAvailable() {
+		return true;
+	}
+
+	/**
+	 * Creates an executor that starts a new virtual thread for each task.
+	 *
+	 * @param namePrefix name prefix of the virtual threads, a counter is appended
+	 * @return the executor
+	 */
+	public static ExecutorService newExecutor(String namePrefix) {
+		return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(namePrefix, 0).factory());
+	}
+}
@@ -0,0 +1,81 @@
+package com.keepa.api.backend.helper;
+
+import com.keepa.api.backend.structs.Request;
+import com.keepa.api.backend.structs.Response;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Reserves tokens from one ledger file with several JVMs at once.
+ */
+public class SharedTokenLedgerTest {
+	private static final int PROCESSES = 4;
+	private static final int TOKENS = 20000;
+
+	private Path file;
+
+	@Before
+	public void createFile() throws Exception {
+		file = Files.createTempFile("keepa-ledger", ".bin");
+	}
+
+	@After
+	public void deleteFile() throws Exception {
+		Files.deleteIfExists(file);
+	}
+
+	/**
+	 * Reserves one token at a time until the ledger is depleted and prints the number of admitted reservations.
+	 *
+	 * @param args the ledger file
+	 */
+	public static void main(String[] args) throws Exception {
+		SharedTokenLedger ledger = SharedTokenLedger.open(Paths.get(args[0]));
+		if (!ledger.isKnown())
+			throw new IllegalStateException("Ledger file is not seeded"); // an unknown balance admits everything
+		long admitted = 0;
+		while (ledger.reserve(1, Request.Priority.NORMAL) == 0)
+			admitted++;
+		System.out.println(admitted);
+	}
+
+	@Test(timeout = 120000)
+	public void processesShareTheBalance() throws Exception {
+		Response seed = new Response();
+		seed.tokensLeft = TOKENS;
+		seed.refillRate = 1;
+		seed.refillIn = 3600000; // no refill while the test runs
+		SharedTokenLedger.open(file).update(seed, 0);
+
+		String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+		List<Process> processes = new ArrayList<>();
+		for (int i = 0; i < PROCESSES; i++) {
+			processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), SharedTokenLedgerTest.class.getName(), file.toString())
+					.redirectError(ProcessBuilder.Redirect.INHERIT)
+					.start());
+		}
+
+		long admitted = 0;
+		for (Process process : processes) {
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+				admitted += Long.parseLong(reader.readLine().trim());
+			}
+			assertEquals(0, process.waitFor());
+		}
+
+		assertEquals(TOKENS, admitted);
+		assertEquals(0, SharedTokenLedger.open(file).getTokens(), 0);
+	}
+}